@@ -0,0 +1,300 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parties IA contre IA sans affichage, jouées en parallèle sur un groupe de fils.
+ * Chaque partie a sa propre instance de StuckWin, sans StdDraw ni saisie.
+ *
+ * Les parties vont par paires : les deux parties d'une paire commencent par les
+ * mêmes demi-coups tirés au hasard, puis le joueur A a les bleus dans la première
+ * et les rouges dans la seconde. La trace d'une partie n'est écrite dans son
+ * fichier qu'à la fin de la partie.
+ */
+public class Arena {
+    static final String JOUEUR_DEFAUT = "ia:100:8";
+    static final int OUVERTURE_DEFAUT = 4;
+    // au-delà, la partie est déclarée nulle ; une partie normale ne l'atteint jamais
+    static final int MAX_DEMI_COUPS = 2 * 13 * 19;
+    // pseudo-paires ajoutées à chaque case du compte pentanomial pour le LLR (régularisation, comme fishtest)
+    static final double PRIOR_PENTANOMIAL = 0.5;
+    // paires terminées avant que le SPRT puisse accepter une hypothèse
+    static final int MIN_PAIRES_SPRT = 20;
+
+    // résultat d'une partie du point de vue du joueur A
+    static final int GAIN_A = 0;
+    static final int GAIN_B = 1;
+    static final int NUL = 2;
+
+    final String joueurA;
+    final String joueurB;
+    final int nbThreads;
+    // répertoire des traces, null pour ne pas en écrire
+    final File traces;
+    // demi-coups aléatoires au début de chaque paire de parties
+    int ouverture = OUVERTURE_DEFAUT;
+    long graine = 2022;
+
+    final LongAdder[] resultats = {new LongAdder(), new LongAdder(), new LongAdder()};
+    final LongAdder demiCoups = new LongAdder();
+    // nombre de paires où A a marqué 0 à 4 demi-points
+    final LongAdder[] pentanomial = {new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()};
+    // score de la première partie finie de chaque paire
+    private AtomicIntegerArray paires;
+    // elo0, elo1, borne basse et borne haute du LLR, null hors SPRT
+    private double[] sprt;
+    private volatile boolean decide;
+    private final AtomicInteger numeroTrace;
+
+    /**
+     * @param joueurA   spécification du joueur A, au format de StuckWin.setJoueur
+     * @param joueurB   spécification du joueur B
+     * @param nbThreads nombre de parties jouées en même temps
+     * @param traces    répertoire où écrire les traces StuckWin_XX.csv, null pour aucune
+     */
+    Arena(String joueurA, String joueurB, int nbThreads, File traces) {
+        this.joueurA = joueurA;
+        this.joueurB = joueurB;
+        this.nbThreads = Math.max(1, nbThreads);
+        this.traces = traces;
+        this.numeroTrace = new AtomicInteger(traces == null ? 0 : StuckWin.dernierNumeroTrace(traces));
+    }
+
+    /**
+     * Joue les parties et affiche l'avancement puis le bilan
+     *
+     * @param nbParties nombre de parties (arrondi au nombre pair supérieur)
+     */
+    void run(int nbParties) {
+        int total = nbParties + (nbParties & 1);
+        jouer(total, Math.max(2, total / 10));
+    }
+
+    /**
+     * Joue des paires de parties jusqu'à ce que le test séquentiel (SPRT) accepte
+     * l'une des deux hypothèses sur l'écart d'Elo entre A et B, ou jusqu'au nombre
+     * maximal de parties. Le rapport de vraisemblance est calculé sur les scores des
+     * paires (GSPRT pentanomial, approximation normale) :
+     * LLR = N (s1 - s0) (2 m - s0 - s1) / (2 v), où m et v sont la moyenne et la
+     * variance du score moyen d'une paire et s0, s1 les scores attendus sous chaque hypothèse.
+     * Chaque case du compte pentanomial reçoit PRIOR_PENTANOMIAL paires fictives, pour que
+     * quelques paires de même score ne donnent pas une variance nulle et un LLR démesuré,
+     * et aucune hypothèse n'est acceptée avant MIN_PAIRES_SPRT paires.
+     *
+     * @param elo0      écart d'Elo de l'hypothèse nulle
+     * @param elo1      écart d'Elo de l'hypothèse alternative
+     * @param alpha     risque de première espèce
+     * @param beta      risque de seconde espèce
+     * @param maxParties nombre maximal de parties
+     */
+    void sprt(double elo0, double elo1, double alpha, double beta, int maxParties) {
+        this.sprt = new double[] {elo0, elo1, Math.log(beta / (1 - alpha)), Math.log((1 - beta) / alpha)};
+        jouer(maxParties + (maxParties & 1), 2 * nbThreads);
+        double llr = pairesFinies() < MIN_PAIRES_SPRT ? 0 : llr();
+        System.out.println(llr >= sprt[3] ? "H1 acceptée : A est plus fort de " + elo1 + " Elo ou plus"
+                : llr <= sprt[2] ? "H0 acceptée : A n'est pas plus fort de " + elo1 + " Elo"
+                : "Aucune hypothèse acceptée après " + maxParties + " parties");
+    }
+
+    /**
+     * Fait jouer les parties 0 à total - 1 par les fils, chacun prenant la prochaine
+     * partie libre, jusqu'à la fin ou jusqu'à la décision du SPRT.
+     */
+    private void jouer(int total, int palier) {
+        AtomicInteger prochaine = new AtomicInteger();
+        AtomicInteger finies = new AtomicInteger();
+        this.paires = new AtomicIntegerArray(total / 2);
+        ExecutorService pool = Executors.newFixedThreadPool(nbThreads);
+        long start = System.nanoTime();
+        for (int t = 0; t < nbThreads; t++) {
+            pool.execute(() -> {
+                int index;
+                while (!decide && (index = prochaine.getAndIncrement()) < total) {
+                    try {
+                        jouerPartie(index);
+                    } catch (RuntimeException e) {
+                        System.out.println("Partie " + index + " : " + e);
+                    }
+                    int n = finies.incrementAndGet();
+                    if (n % palier == 0 && n < total && !decide) {
+                        System.out.println(bilan(System.nanoTime() - start));
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println(bilan(System.nanoTime() - start));
+    }
+
+    /**
+     * Joue une partie et l'ajoute aux compteurs
+     *
+     * @param index numéro de la partie : la paire est index / 2, A a les bleus si index est pair
+     * @return GAIN_A, GAIN_B ou NUL
+     */
+    int jouerPartie(long index) {
+        boolean aBleu = (index & 1) == 0;
+        StuckWin jeu = new StuckWin();
+        jeu.setJoueur('B', aBleu ? joueurA : joueurB);
+        jeu.setJoueur('R', aBleu ? joueurB : joueurA);
+        if (jeu.typesJoueurs[Board.BLEU] == 'H' || jeu.typesJoueurs[Board.ROUGE] == 'H') {
+            throw new IllegalArgumentException("Les deux joueurs de l'arène doivent être des IA : " + joueurA + ", " + joueurB);
+        }
+        TraceWriter trace = null;
+        if (traces != null) {
+            try {
+                trace = new TraceWriter(new File(traces, StuckWin.nomTrace(numeroTrace.incrementAndGet())),
+                        TraceWriter.Flush.FIN_DE_PARTIE, 0);
+                trace.header("Arena");
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
+        SplittableRandom random = new SplittableRandom(graine + index / 2);
+        int[] moves = new int[Board.MAX_MOVES];
+        char couleur = 'B';
+        char gagnant = 'N';
+        int ply = 0;
+        try {
+            while (ply < MAX_DEMI_COUPS) {
+                gagnant = jeu.finPartie(couleur);
+                if (gagnant != 'N') {
+                    break;
+                }
+                int move;
+                if (ply < ouverture) {
+                    move = moves[random.nextInt(jeu.coupsPossibles(couleur, moves))];
+                } else {
+                    move = jeu.choisirCoup(couleur);
+                }
+                StuckWin.Result status = jeu.deplace(couleur, Board.moveSrc(move), Board.moveDest(move), StuckWin.ModeMvt.REAL);
+                if (trace != null) {
+                    trace.append(couleur, Board.NOTATION[Board.moveSrc(move)], Board.NOTATION[Board.moveDest(move)], status);
+                }
+                couleur = couleur == 'B' ? 'R' : 'B';
+                ply++;
+            }
+        } finally {
+            if (trace != null) {
+                trace.close();
+            }
+            for (Searcher moteur : jeu.moteurs) {
+                if (moteur != null) {
+                    moteur.close();
+                }
+            }
+        }
+        int resultat = gagnant == 'N' ? NUL : (gagnant == 'B') == aBleu ? GAIN_A : GAIN_B;
+        resultats[resultat].increment();
+        demiCoups.add(ply);
+        finPaire((int) (index / 2), resultat == GAIN_A ? 2 : resultat == NUL ? 1 : 0);
+        return resultat;
+    }
+
+    /**
+     * Note le score de A dans une partie de la paire ; la seconde partie terminée
+     * ajoute le score de la paire au compte pentanomial et met à jour la décision du SPRT.
+     *
+     * @param paire        numéro de la paire
+     * @param demiPoints   score de A dans la partie, en demi-points
+     */
+    private void finPaire(int paire, int demiPoints) {
+        if (paires == null || paire >= paires.length()) {
+            return;
+        }
+        // 0 tant qu'aucune partie de la paire n'est finie, sinon 1 + score de la première
+        int premiere = paires.getAndSet(paire, demiPoints + 1);
+        if (premiere == 0) {
+            return;
+        }
+        pentanomial[premiere - 1 + demiPoints].increment();
+        if (sprt != null && pairesFinies() >= MIN_PAIRES_SPRT) {
+            double llr = llr();
+            if (llr <= sprt[2] || llr >= sprt[3]) {
+                decide = true;
+            }
+        }
+    }
+
+    /**
+     * @return nombre de paires dont les deux parties sont terminées
+     */
+    long pairesFinies() {
+        long n = 0;
+        for (LongAdder c : pentanomial) {
+            n += c.sum();
+        }
+        return n;
+    }
+
+    /**
+     * @return rapport de vraisemblance logarithmique des paires terminées, sur le compte
+     *         pentanomial régularisé par PRIOR_PENTANOMIAL
+     */
+    double llr() {
+        double n = 0;
+        double somme = 0;
+        double carres = 0;
+        for (int k = 0; k < pentanomial.length; k++) {
+            double c = pentanomial[k].sum() + PRIOR_PENTANOMIAL;
+            double x = k / 4.0;
+            n += c;
+            somme += c * x;
+            carres += c * x * x;
+        }
+        double m = somme / n;
+        double v = carres / n - m * m;
+        if (v <= 1e-9) {
+            return 0;
+        }
+        double s0 = score(sprt[0]);
+        double s1 = score(sprt[1]);
+        return n * (s1 - s0) * (2 * m - s0 - s1) / (2 * v);
+    }
+
+    /**
+     * @return score attendu d'un joueur plus fort de elo points (modèle logistique)
+     */
+    static double score(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    /**
+     * @param elapsedNanos durée écoulée depuis le début
+     * @return bilan sur une ligne : résultats, longueur moyenne et débit
+     */
+    String bilan(long elapsedNanos) {
+        long a = resultats[GAIN_A].sum();
+        long b = resultats[GAIN_B].sum();
+        long nuls = resultats[NUL].sum();
+        long parties = a + b + nuls;
+        long coups = demiCoups.sum();
+        double secondes = Math.max(1, elapsedNanos) / 1e9;
+        return "Arène : " + parties + " parties, A (" + joueurA + ") " + a + " - B (" + joueurB + ") " + b
+                + ", nulles " + nuls + ", " + String.format("%.1f", parties == 0 ? 0.0 : (double) coups / parties)
+                + " demi-coups en moyenne, " + String.format("%.0f", coups / secondes) + " coups/s, "
+                + String.format("%.2f", parties / secondes) + " parties/s (" + nbThreads + " fils)"
+                + (sprt == null ? "" : String.format(", LLR %.2f [%.2f, %.2f]", llr(), sprt[2], sprt[3]))
+                + (parties == 0 || a == parties || b == parties ? ""
+                : String.format(", Elo A-B %+.0f", -400 * Math.log10((double) parties / (a + nuls / 2.0) - 1)));
+    }
+}
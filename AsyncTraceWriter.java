@@ -0,0 +1,250 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Écriture d'une trace par un fil d'arrière-plan. Le fil de jeu dépose chaque coup
+ * dans un anneau borné, sans verrou : le coup est codé dans un int (couleur, cases,
+ * résultat) et seule une ligne dont les cases ne sont pas des noms de case est gardée
+ * telle quelle. Le fil d'écriture vide l'anneau par lots dans un TraceWriter.
+ *
+ * Un seul fil peut déposer des coups. Quand l'anneau est plein, la politique de
+ * saturation choisit entre attendre, abandonner le coup ou l'écrire dans le fil appelant.
+ */
+public class AsyncTraceWriter implements Closeable {
+
+    /**
+     * Comportement quand l'anneau est plein
+     */
+    enum Saturation {
+        // attendre que le fil d'écriture libère une place
+        BLOQUER,
+        // abandonner le coup (compté dans perdus)
+        IGNORER,
+        // vider l'anneau dans le fil appelant
+        APPELANT
+    }
+
+    static final int CAPACITE_DEFAUT = 1024;
+    // attente maximale du fil d'écriture quand l'anneau est vide, et du fil de jeu quand il est plein
+    private static final long ATTENTE_NANOS = 1_000_000;
+    private static final StuckWin.Result[] RESULTATS = StuckWin.Result.values();
+
+    private static final Set<AsyncTraceWriter> OUVERTES = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (AsyncTraceWriter trace : OUVERTES) {
+                trace.vider();
+                trace.cible.flush();
+            }
+        }, "StuckWin-traces-async"));
+    }
+
+    final TraceWriter cible;
+    final Saturation saturation;
+    private final int masque;
+    // coup codé : couleur bit 0, source bits 1 à 6, destination bits 7 à 12, résultat bits 13 à 15 ; -1 pour une ligne brute
+    private final int[] codes;
+    private final String[] bruts;
+    // date de dépôt de chaque coup, pour le temps d'attente
+    private final long[] dates;
+    // nombre de coups déposés (écrit par le producteur) et écrits (par le consommateur)
+    private final AtomicLong queue = new AtomicLong();
+    private final AtomicLong tete = new AtomicLong();
+    private final Thread ecrivain;
+    // vrai quand le fil d'écriture attend des coups
+    private volatile boolean ecrivainEndormi;
+    // fil de jeu qui attend une place (BLOQUER), null sinon
+    private volatile Thread producteurBloque;
+    private volatile boolean ferme;
+
+    final LongAdder ecrits = new LongAdder();
+    final LongAdder perdus = new LongAdder();
+    final LongAdder parAppelant = new LongAdder();
+    final AtomicLong profondeurMax = new AtomicLong();
+    // temps passé par un coup dans l'anneau, du dépôt à sa remise au tampon du TraceWriter ;
+    // l'écriture sur disque, faite selon la politique de la cible, n'y est pas comprise
+    final AtomicLong attenteTotaleNanos = new AtomicLong();
+    final AtomicLong attenteMaxNanos = new AtomicLong();
+
+    /**
+     * Démarre le fil d'écriture
+     *
+     * @param cible      trace où écrire, fermée avec celle-ci
+     * @param capacite   nombre de coups en attente au plus (arrondi à la puissance de 2 supérieure)
+     * @param saturation comportement quand l'anneau est plein
+     */
+    AsyncTraceWriter(TraceWriter cible, int capacite, Saturation saturation) {
+        int taille = Integer.highestOneBit(Math.max(2, capacite) - 1) << 1;
+        this.cible = cible;
+        this.saturation = saturation;
+        this.masque = taille - 1;
+        this.codes = new int[taille];
+        this.bruts = new String[taille];
+        this.dates = new long[taille];
+        this.ecrivain = new Thread(this::ecrire, "StuckWin-trace " + cible.file.getName());
+        this.ecrivain.setDaemon(true);
+        OUVERTES.add(this);
+        this.ecrivain.start();
+    }
+
+    /**
+     * Dépose un coup dans l'anneau
+     *
+     * @param color  Couleur du joueur (char)
+     * @param start  Pièce source (String)
+     * @param dest   Pièce dest. (String)
+     * @param result Etat du mouvement
+     * @return faux si le coup a été abandonné (anneau plein avec IGNORER, ou trace fermée)
+     */
+    boolean offer(char color, String start, String dest, StuckWin.Result result) {
+        if (ferme) {
+            perdus.increment();
+            return false;
+        }
+        int code = code(color, start, dest, result);
+        long t = queue.get();
+        while (t - tete.get() > masque) {
+            switch (saturation) {
+                case IGNORER:
+                    perdus.increment();
+                    return false;
+                case APPELANT:
+                    parAppelant.increment();
+                    vider();
+                    break;
+                default:
+                    producteurBloque = Thread.currentThread();
+                    LockSupport.unpark(ecrivain);
+                    if (t - tete.get() > masque) {
+                        LockSupport.parkNanos(this, ATTENTE_NANOS);
+                    }
+                    producteurBloque = null;
+                    break;
+            }
+        }
+        int i = (int) t & masque;
+        codes[i] = code;
+        bruts[i] = code < 0 ? StuckWin.ligneCsv(color, start, dest, result) : null;
+        dates[i] = System.nanoTime();
+        queue.set(t + 1);
+        if (ecrivainEndormi) {
+            LockSupport.unpark(ecrivain);
+        }
+        profondeurMax.accumulateAndGet(t + 1 - tete.get(), Math::max);
+        return true;
+    }
+
+    /**
+     * @return code du coup, -1 si la couleur ou une case n'a pas de code
+     */
+    private static int code(char color, String start, String dest, StuckWin.Result result) {
+        int c = Board.colorIndex(color);
+        int src = Board.notationIndex(start);
+        int dst = Board.notationIndex(dest);
+        if (c < 0 || src < 0 || dst < 0) {
+            return -1;
+        }
+        return c | src << 1 | dst << 7 | result.ordinal() << 13;
+    }
+
+    /**
+     * Écrit dans la cible les coups en attente, en un seul lot
+     *
+     * @return nombre de coups écrits
+     */
+    private int vider() {
+        synchronized (cible) {
+            long h = tete.get();
+            long t = queue.get();
+            for (long k = h; k < t; k++) {
+                int i = (int) k & masque;
+                int code = codes[i];
+                if (code < 0) {
+                    cible.appendLigne(bruts[i]);
+                    bruts[i] = null;
+                } else {
+                    cible.append((code & 1) == Board.BLEU ? 'B' : 'R', Board.NOTATION[code >>> 1 & 63],
+                            Board.NOTATION[code >>> 7 & 63], RESULTATS[code >>> 13 & 7]);
+                }
+                long attente = System.nanoTime() - dates[i];
+                attenteTotaleNanos.addAndGet(attente);
+                attenteMaxNanos.accumulateAndGet(attente, Math::max);
+                tete.lazySet(k + 1);
+            }
+            ecrits.add(t - h);
+            Thread producteur = producteurBloque;
+            if (producteur != null && t > h) {
+                LockSupport.unpark(producteur);
+            }
+            return (int) (t - h);
+        }
+    }
+
+    /**
+     * Boucle du fil d'écriture : vide l'anneau puis attend le prochain coup, jusqu'à la fermeture
+     */
+    private void ecrire() {
+        while (true) {
+            boolean fin = ferme;
+            if (vider() == 0) {
+                if (fin) {
+                    return;
+                }
+                ecrivainEndormi = true;
+                if (profondeur() == 0 && !ferme) {
+                    LockSupport.parkNanos(this, ATTENTE_NANOS);
+                }
+                ecrivainEndormi = false;
+            }
+        }
+    }
+
+    /**
+     * @return nombre de coups en attente d'écriture
+     */
+    long profondeur() {
+        return queue.get() - tete.get();
+    }
+
+    /**
+     * Écrit les coups en attente puis ferme la cible
+     */
+    @Override
+    public void close() {
+        ferme = true;
+        LockSupport.unpark(ecrivain);
+        try {
+            ecrivain.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        vider();
+        OUVERTES.remove(this);
+        cible.close();
+    }
+
+    /**
+     * @return compteurs sur une ligne
+     */
+    @Override
+    public String toString() {
+        long n = ecrits.sum();
+        return "Trace " + cible.file.getName() + " : " + n + " coups écrits, " + perdus.sum() + " perdus, "
+                + parAppelant.sum() + " écritures par le fil de jeu, profondeur " + profondeur() + " (max "
+                + profondeurMax.get() + "), attente dans l'anneau moyenne " + (n == 0 ? 0 : attenteTotaleNanos.get() / n / 1000)
+                + " µs, max " + attenteMaxNanos.get() / 1000 + " µs";
+    }
+}
@@ -0,0 +1,455 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Trace binaire d'une partie (.swt), convertible sans perte vers et depuis StuckWin_XX.csv.
+ *
+ * Entête : "SWTR", version, interface de jeu et date de la partie quand les lignes de
+ * commentaires sont celles de StuckWin.enteteCsv (date à -1 sinon). Puis un coup par
+ * short : couleur bit 15, source bits 9 à 14, destination bits 3 à 8, résultat bits 0 à 2.
+ * La source 63 marque un échappement dont le genre est dans le champ destination :
+ * une ligne brute (commentaire, ligne mal formée) suivie de son texte, ou la fin de la trace.
+ * Les octets du CSV sont lus en ISO-8859-1, ce qui garde un fichier identique octet pour octet.
+ */
+public class BinaryTrace {
+    static final String EXTENSION = ".swt";
+    private static final int MAGIC = 0x53575452; // "SWTR"
+    private static final int VERSION = 1;
+    private static final int ECHAPPEMENT = 63;
+    // genres d'échappement
+    private static final int LIGNE = 0;
+    private static final int FIN = 1;
+    private static final int FIN_SANS_RETOUR = 2;
+    private static final StuckWin.Result[] RESULTATS = StuckWin.Result.values();
+    private static final DateTimeFormatter FORMAT_DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Pattern LIGNE_INTERFACE = Pattern.compile(
+            "# Game played with (.*) interface \\((\\d{4}-\\d\\d-\\d\\d \\d\\d:\\d\\d:\\d\\d)\\)");
+
+    /**
+     * Reçoit le contenu d'une trace binaire, dans l'ordre du fichier
+     */
+    interface Visiteur {
+        /**
+         * Début d'une partie
+         *
+         * @param mode interface de jeu, "" si l'entête n'est pas celle de StuckWin.enteteCsv
+         *             ou si la trace est lue en CSV par TraceParser, qui n'analyse pas l'entête
+         * @param date date de la partie, null dans ces cas
+         */
+        default void entete(String mode, LocalDateTime date) {
+        }
+
+        /**
+         * @param color  'B' ou 'R'
+         * @param src    case source, indice de Board.NOTATION
+         * @param dst    case destination
+         * @param result ordinal de StuckWin.Result
+         */
+        void coup(char color, int src, int dst, int result);
+
+        /**
+         * @param ligne ligne du CSV qui n'est pas un coup, sans son retour à la ligne
+         */
+        default void ligne(String ligne) {
+        }
+
+        /**
+         * Fin d'une partie
+         *
+         * @param retourFinal vrai si la dernière ligne du CSV se termine par un retour à la ligne
+         */
+        default void fin(boolean retourFinal) {
+        }
+    }
+
+    private BinaryTrace() {
+    }
+
+    /**
+     * Écrit l'entête d'une trace binaire
+     *
+     * @param out  flux de la trace
+     * @param mode interface de jeu (Terminal, Graphical, ...), "" si inconnue
+     * @param date date de la partie, null si inconnue
+     */
+    static void ecrireEntete(DataOutputStream out, String mode, LocalDateTime date) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeUTF(mode);
+        out.writeLong(date == null ? -1 : date.toEpochSecond(ZoneOffset.UTC));
+    }
+
+    /**
+     * Écrit un coup sur deux octets
+     *
+     * @param color  indice de couleur (Board.BLEU ou Board.ROUGE)
+     * @param src    case source
+     * @param dst    case destination
+     * @param result état du mouvement
+     */
+    static void ecrireCoup(DataOutputStream out, int color, int src, int dst, StuckWin.Result result) throws IOException {
+        out.writeShort(color << 15 | src << 9 | dst << 3 | result.ordinal());
+    }
+
+    /**
+     * Écrit une ligne brute
+     *
+     * @param ligne texte de la ligne, sans retour à la ligne
+     */
+    static void ecrireLigne(DataOutputStream out, String ligne) throws IOException {
+        out.writeShort(ECHAPPEMENT << 9 | LIGNE << 3);
+        out.writeUTF(ligne);
+    }
+
+    /**
+     * Termine la trace
+     *
+     * @param retourFinal vrai si la dernière ligne du CSV se termine par un retour à la ligne
+     */
+    static void ecrireFin(DataOutputStream out, boolean retourFinal) throws IOException {
+        out.writeShort(ECHAPPEMENT << 9 | (retourFinal ? FIN : FIN_SANS_RETOUR) << 3);
+    }
+
+    /**
+     * Lit une trace binaire jusqu'à sa fin
+     *
+     * @param in       flux de la trace
+     * @param visiteur destinataire de l'entête, des coups et des lignes brutes
+     * @throws IOException si le flux n'est pas une trace binaire ou est tronqué
+     */
+    static void lire(DataInputStream in, Visiteur visiteur) throws IOException {
+        if (in.readInt() != MAGIC || in.readUnsignedShort() != VERSION) {
+            throw new IOException("Ce n'est pas une trace binaire StuckWin");
+        }
+        String mode = in.readUTF();
+        long date = in.readLong();
+        visiteur.entete(mode, date < 0 ? null : LocalDateTime.ofEpochSecond(date, 0, ZoneOffset.UTC));
+        while (true) {
+            int genre = enregistrement(in.readUnsignedShort(), visiteur);
+            if (genre == LIGNE) {
+                visiteur.ligne(in.readUTF());
+            } else if (genre >= 0) {
+                visiteur.fin(genre == FIN);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Lit une trace binaire depuis la position du buffer, qui avance jusqu'après la fin de la trace.
+     * Plusieurs traces mises bout à bout se lisent par des appels successifs. Le format est
+     * gros-boutiste quel que soit l'ordre des octets du buffer.
+     *
+     * @param source   contenu de la trace
+     * @param visiteur destinataire de l'entête, des coups et des lignes brutes
+     * @throws IOException si le contenu n'est pas une trace binaire ou est tronqué
+     */
+    static void lire(ByteBuffer source, Visiteur visiteur) throws IOException {
+        ByteBuffer buffer = grosBoutiste(source);
+        try {
+            if (buffer.getInt() != MAGIC || (buffer.getShort() & 0xFFFF) != VERSION) {
+                throw new IOException("Ce n'est pas une trace binaire StuckWin");
+            }
+            String mode = lireUTF(buffer);
+            long date = buffer.getLong();
+            visiteur.entete(mode, date < 0 ? null : LocalDateTime.ofEpochSecond(date, 0, ZoneOffset.UTC));
+            while (true) {
+                int genre = enregistrement(buffer.getShort() & 0xFFFF, visiteur);
+                if (genre == LIGNE) {
+                    visiteur.ligne(lireUTF(buffer));
+                } else if (genre >= 0) {
+                    visiteur.fin(genre == FIN);
+                    return;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Trace binaire tronquée", e);
+        } finally {
+            source.position(buffer.position());
+        }
+    }
+
+    /**
+     * Mesure la trace binaire qui commence à la position du buffer, sans la lire ni
+     * déplacer la position
+     *
+     * @param source contenu où chercher la trace
+     * @return nombre d'octets de la trace, -1 si elle ne finit pas avant la limite du buffer
+     */
+    static int longueur(ByteBuffer source) {
+        ByteBuffer buffer = grosBoutiste(source);
+        int debut = buffer.position();
+        int fin = buffer.limit();
+        // magic, version, interface (longueur + octets), date
+        int i = debut + Integer.BYTES + Short.BYTES;
+        if (i + Short.BYTES > fin) {
+            return -1;
+        }
+        i += Short.BYTES + (buffer.getShort(i) & 0xFFFF) + Long.BYTES;
+        while (i + Short.BYTES <= fin) {
+            int code = buffer.getShort(i) & 0xFFFF;
+            i += Short.BYTES;
+            if ((code >>> 9 & 63) != ECHAPPEMENT) {
+                continue;
+            }
+            if ((code >>> 3 & 63) != LIGNE) {
+                return i - debut;
+            }
+            if (i + Short.BYTES > fin) {
+                return -1;
+            }
+            i += Short.BYTES + (buffer.getShort(i) & 0xFFFF);
+        }
+        return -1;
+    }
+
+    /**
+     * @return le buffer s'il est gros-boutiste, sinon une copie de ses indices qui l'est
+     */
+    private static ByteBuffer grosBoutiste(ByteBuffer buffer) {
+        return buffer.order() == ByteOrder.BIG_ENDIAN ? buffer : buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @return vrai si le buffer commence, à sa position, par l'entête d'une trace binaire
+     */
+    static boolean estBinaire(ByteBuffer buffer) {
+        return buffer.remaining() >= Integer.BYTES && grosBoutiste(buffer).getInt(buffer.position()) == MAGIC;
+    }
+
+    /**
+     * Passe un coup au visiteur
+     *
+     * @param code enregistrement lu
+     * @return -1 pour un coup, genre de l'échappement sinon
+     */
+    private static int enregistrement(int code, Visiteur visiteur) {
+        int src = code >>> 9 & 63;
+        if (src == ECHAPPEMENT) {
+            return code >>> 3 & 63;
+        }
+        visiteur.coup((code & 0x8000) == 0 ? 'B' : 'R', src, code >>> 3 & 63, code & 7);
+        return -1;
+    }
+
+    /**
+     * Lit une chaîne écrite par DataOutputStream.writeUTF
+     */
+    private static String lireUTF(ByteBuffer buffer) throws IOException {
+        byte[] octets = new byte[2 + (buffer.getShort(buffer.position()) & 0xFFFF)];
+        buffer.get(octets);
+        return new DataInputStream(new ByteArrayInputStream(octets)).readUTF();
+    }
+
+    /**
+     * Convertit une trace CSV en trace binaire
+     *
+     * @param csv trace StuckWin_XX.csv
+     * @param bin trace binaire à écrire
+     */
+    static void fromCsv(File csv, File bin) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(csv));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(bin)))) {
+            // premières lignes, gardées jusqu'à savoir si c'est l'entête de StuckWin.enteteCsv
+            List<String> entete = new ArrayList<>();
+            StringBuilder ligne = new StringBuilder();
+            boolean retourFinal = false;
+            while (true) {
+                boolean retour = lireLigne(in, ligne);
+                if (!retour && ligne.length() == 0) {
+                    break;
+                }
+                if (entete == null) {
+                    ecrireLigneCsv(out, ligne.toString());
+                } else {
+                    entete.add(ligne.toString());
+                    if (entete.size() == 4) {
+                        ecrireEntete(out, entete);
+                        entete = null;
+                    }
+                }
+                retourFinal = retour;
+                if (!retour) {
+                    break;
+                }
+            }
+            if (entete != null) {
+                ecrireEntete(out, entete);
+            }
+            ecrireFin(out, retourFinal);
+        }
+    }
+
+    /**
+     * Lit une ligne, octet par octet en ISO-8859-1
+     *
+     * @param ligne reçoit la ligne sans son retour à la ligne
+     * @return vrai si la ligne se termine par un retour à la ligne, faux en fin de fichier
+     */
+    private static boolean lireLigne(InputStream in, StringBuilder ligne) throws IOException {
+        ligne.setLength(0);
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                return true;
+            }
+            ligne.append((char) c);
+        }
+        return false;
+    }
+
+    /**
+     * Écrit l'entête d'après les premières lignes du CSV : interface et date si elles
+     * sont celles de StuckWin.enteteCsv, sinon entête vide suivie des lignes brutes.
+     */
+    private static void ecrireEntete(DataOutputStream out, List<String> lignes) throws IOException {
+        if (lignes.size() == 4) {
+            Matcher m = LIGNE_INTERFACE.matcher(lignes.get(2));
+            if (m.matches()) {
+                LocalDateTime date = LocalDateTime.parse(m.group(2), FORMAT_DATE);
+                if (String.join("\n", lignes).concat("\n").equals(StuckWin.enteteCsv(m.group(1), date))) {
+                    ecrireEntete(out, m.group(1), date);
+                    return;
+                }
+            }
+        }
+        ecrireEntete(out, "", null);
+        for (String ligne : lignes) {
+            ecrireLigneCsv(out, ligne);
+        }
+    }
+
+    /**
+     * Écrit une ligne du CSV : coup codé si elle s'écrit exactement comme StuckWin.ligneCsv, ligne brute sinon
+     */
+    private static void ecrireLigneCsv(DataOutputStream out, String ligne) throws IOException {
+        int n = ligne.length();
+        if (n >= 9 && ligne.charAt(1) == ',' && ligne.charAt(4) == ',' && ligne.charAt(7) == ',') {
+            int color = Board.colorIndex(ligne.charAt(0));
+            int src = Board.notationIndex(ligne.substring(2, 4));
+            int dst = Board.notationIndex(ligne.substring(5, 7));
+            String result = ligne.substring(8);
+            for (StuckWin.Result r : RESULTATS) {
+                if (color >= 0 && src >= 0 && dst >= 0 && r.name().equals(result)) {
+                    ecrireCoup(out, color, src, dst, r);
+                    return;
+                }
+            }
+        }
+        if (n > 0xFFFF / 2) {
+            throw new IOException("Ligne de " + n + " caractères trop longue pour une trace binaire");
+        }
+        ecrireLigne(out, ligne);
+    }
+
+    /**
+     * Convertit une trace binaire en trace CSV
+     *
+     * @param bin trace binaire
+     * @param csv trace StuckWin_XX.csv à écrire
+     */
+    static void toCsv(File bin, File csv) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(bin)));
+             Writer out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(csv)), StandardCharsets.ISO_8859_1)) {
+            IOException[] erreur = new IOException[1];
+            lire(in, new Visiteur() {
+                // vrai tant qu'aucune ligne n'est écrite : les retours à la ligne précèdent les lignes
+                boolean premiere = true;
+
+                @Override
+                public void entete(String mode, LocalDateTime date) {
+                    if (date != null) {
+                        String texte = StuckWin.enteteCsv(mode, date);
+                        ecrire(texte.substring(0, texte.length() - 1));
+                    }
+                }
+
+                @Override
+                public void coup(char color, int src, int dst, int result) {
+                    String texte = StuckWin.ligneCsv(color, Board.NOTATION[src], Board.NOTATION[dst], RESULTATS[result]);
+                    ecrire(texte.substring(0, texte.length() - 1));
+                }
+
+                @Override
+                public void ligne(String ligne) {
+                    ecrire(ligne);
+                }
+
+                @Override
+                public void fin(boolean retourFinal) {
+                    if (retourFinal && !premiere) {
+                        ecrire("");
+                    }
+                }
+
+                private void ecrire(String texte) {
+                    try {
+                        if (!premiere) {
+                            out.write('\n');
+                        }
+                        out.write(texte);
+                        premiere = false;
+                    } catch (IOException e) {
+                        erreur[0] = e;
+                    }
+                }
+            });
+            if (erreur[0] != null) {
+                throw erreur[0];
+            }
+        }
+    }
+
+    /**
+     * Convertit une trace CSV en binaire puis à nouveau en CSV, et compare au fichier d'origine
+     *
+     * @param csv trace StuckWin_XX.csv
+     * @return vrai si le fichier reconstruit est identique octet pour octet
+     */
+    static boolean allerRetour(File csv) throws IOException {
+        File bin = File.createTempFile("StuckWin", EXTENSION);
+        File retour = File.createTempFile("StuckWin", ".csv");
+        try {
+            fromCsv(csv, bin);
+            toCsv(bin, retour);
+            boolean identique = Arrays.equals(Files.readAllBytes(csv.toPath()), Files.readAllBytes(retour.toPath()));
+            System.out.println(csv + " : " + csv.length() + " octets en CSV, " + bin.length() + " en binaire, "
+                    + (identique ? "identique après aller-retour" : "DIFFÉRENT après aller-retour"));
+            return identique;
+        } finally {
+            bin.delete();
+            retour.delete();
+        }
+    }
+}
@@ -0,0 +1,608 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+/**
+ * Représentation du plateau de StuckWin par bitboards.
+ * La case de ligne l (A..G) et de colonne c (0..7) correspond au bit l * 8 + c,
+ * soit A0 = bit 0 et G7 = bit 55. Un long par couleur porte les pions, un masque
+ * constant porte les cases jouables. La colonne 0 n'est jamais jouable, ce qui
+ * absorbe les débordements d'une ligne à l'autre lors des décalages.
+ */
+public class Board {
+    static final int NB_LIGNES = 7;
+    static final int NB_COLONNES = 8;
+    static final int NB_CASES = NB_LIGNES * NB_COLONNES;
+    static final int BLEU = 0;
+    static final int ROUGE = 1;
+    static final char[] COULEURS = {'B', 'R'};
+    // pions de chaque couleur au départ ; aucun coup n'en retire
+    static final int NB_PIONS = 13;
+
+    /**
+     * Borne du nombre de coups d'une position (13 pions * 3 directions au plus)
+     */
+    static final int MAX_MOVES = 64;
+
+    /**
+     * Masque des cases existantes du plateau ('-' exclues)
+     */
+    static final long JOUABLE = 0x001E3E7EFEFCF8F0L;
+
+    /**
+     * Indice de case sentinelle : bit 63, jamais jouable
+     */
+    static final int HORS = 63;
+
+    // déplacements {ligne, colonne} des trois cases avant, dans l'ordre des
+    // emplacements du tableau renvoyé par StuckWin.possibleDests
+    private static final int[][][] DIRECTIONS = {
+            {{-1, 0}, {-1, 1}, {0, 1}},
+            {{1, 0}, {1, -1}, {0, -1}},
+    };
+
+    /**
+     * FORWARD[couleur][case * 3 + k] : k-ième case avant de la case, HORS si elle n'existe pas
+     */
+    static final int[][] FORWARD = new int[2][NB_CASES * 3];
+
+    /**
+     * FORWARD_MASK[couleur][case] : masque des cases avant existantes de la case
+     */
+    static final long[][] FORWARD_MASK = new long[2][NB_CASES];
+
+    /**
+     * BACKWARD_MASK[couleur][case] : masque des cases dont la case est une case avant
+     */
+    static final long[][] BACKWARD_MASK = new long[2][NB_CASES];
+
+    /**
+     * NOTATION[case] : nom de la case au format Lc ("A0" à "G7")
+     */
+    static final String[] NOTATION = new String[NB_CASES];
+
+    /**
+     * Clés de Zobrist : ZOBRIST[couleur][case] pour chaque pion, ZOBRIST_TRAIT quand rouge a le trait.
+     * Graine fixe pour que les hachages restent stables d'une exécution à l'autre.
+     */
+    static final long[][] ZOBRIST = new long[2][NB_CASES];
+    static final long ZOBRIST_TRAIT;
+
+    /**
+     * Motif d'un pion : état de ses trois cases avant, deux bits par case dans l'ordre
+     * de FORWARD (0 vide, 1 pion de la même couleur, 2 pion adverse, 3 hors plateau),
+     * soit un entier de 0 à 63. POIDS[couleur][case * 64 + motif] est la valeur du pion,
+     * et l'évaluation d'une couleur la somme des valeurs de ses pions.
+     * Les poids par défaut comptent les cases avant vides, c'est-à-dire la mobilité.
+     */
+    static final int NB_MOTIFS = 64;
+    static final String FICHIER_POIDS = "StuckWin.motifs";
+    private static final int MAGIC_POIDS = 0x53574D54; // "SWMT"
+    static final int[][] POIDS = new int[2][NB_CASES * NB_MOTIFS];
+    // MOTIF_HORS[couleur][case] : bits des cases avant hors plateau (3 par case absente)
+    private static final int[][] MOTIF_HORS = new int[2][NB_CASES];
+
+    static {
+        for (int row = 0; row < NB_LIGNES; row++) {
+            for (int col = 0; col < NB_COLONNES; col++) {
+                int sq = index(row, col);
+                NOTATION[sq] = "" + (char) ('A' + row) + col;
+                for (int color = BLEU; color <= ROUGE; color++) {
+                    for (int k = 0; k < 3; k++) {
+                        int r = row + DIRECTIONS[color][k][0];
+                        int c = col + DIRECTIONS[color][k][1];
+                        int dest = HORS;
+                        if (r >= 0 && r < NB_LIGNES && c >= 0 && c < NB_COLONNES
+                                && (JOUABLE & (1L << index(r, c))) != 0) {
+                            dest = index(r, c);
+                            FORWARD_MASK[color][sq] |= 1L << dest;
+                            BACKWARD_MASK[color][dest] |= 1L << sq;
+                        }
+                        FORWARD[color][sq * 3 + k] = dest;
+                    }
+                }
+            }
+        }
+        SplittableRandom random = new SplittableRandom(0x5354_5543_4B57_494EL);
+        for (int color = BLEU; color <= ROUGE; color++) {
+            for (int sq = 0; sq < NB_CASES; sq++) {
+                ZOBRIST[color][sq] = random.nextLong();
+            }
+        }
+        ZOBRIST_TRAIT = random.nextLong();
+        for (int color = BLEU; color <= ROUGE; color++) {
+            for (int sq = 0; sq < NB_CASES; sq++) {
+                for (int k = 0; k < 3; k++) {
+                    MOTIF_HORS[color][sq] |= FORWARD[color][sq * 3 + k] == HORS ? 3 << (2 * k) : 0;
+                }
+            }
+            for (int i = 0; i < POIDS[color].length; i++) {
+                int motif = i % NB_MOTIFS;
+                for (int k = 0; k < 3; k++) {
+                    POIDS[color][i] += (motif >>> (2 * k) & 3) == 0 ? 1 : 0;
+                }
+            }
+        }
+        if (new File(FICHIER_POIDS).exists()) {
+            try {
+                loadWeights(new File(FICHIER_POIDS));
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
+    }
+
+    // pions[BLEU] et pions[ROUGE]
+    final long[] pions = new long[2];
+    // couleur qui a le trait, bleu commence
+    int side = BLEU;
+    // nombre de couples (pion, destination) jouables par couleur, tenu à jour par move
+    final int[] mobilite = new int[2];
+    // clé de Zobrist de la position (pions et trait), tenue à jour par move et makeMove
+    long hash;
+    // somme des POIDS des pions par couleur, tenue à jour par move si suiviMotifs
+    final int[] motifs = new int[2];
+    boolean suiviMotifs;
+
+    /**
+     * Construit un plateau à partir d'un tableau d'état au format de StuckWin.state
+     *
+     * @param state tableau de caractères ('B', 'R', '.', '-')
+     * @return le plateau correspondant
+     */
+    static Board fromState(char[][] state) {
+        Board board = new Board();
+        for (int i = 0; i < state.length; i++) {
+            for (int j = 0; j < state[i].length; j++) {
+                int color = colorIndex(state[i][j]);
+                if (color >= 0) {
+                    board.pions[color] |= 1L << index(i, j);
+                }
+            }
+        }
+        board.mobilite[BLEU] = board.mobility(BLEU, board.pions[BLEU]);
+        board.mobilite[ROUGE] = board.mobility(ROUGE, board.pions[ROUGE]);
+        board.hash = board.computeHash();
+        return board;
+    }
+
+    /**
+     * Recopie le plateau dans un tableau d'état au format de StuckWin.state
+     *
+     * @param state tableau à remplir (7 lignes de 8 colonnes)
+     */
+    void toState(char[][] state) {
+        for (int i = 0; i < NB_LIGNES; i++) {
+            for (int j = 0; j < NB_COLONNES; j++) {
+                state[i][j] = get(index(i, j));
+            }
+        }
+    }
+
+    /**
+     * Copie indépendante du plateau
+     *
+     * @return nouveau plateau identique
+     */
+    Board copy() {
+        Board board = new Board();
+        board.pions[BLEU] = this.pions[BLEU];
+        board.pions[ROUGE] = this.pions[ROUGE];
+        board.side = this.side;
+        board.mobilite[BLEU] = this.mobilite[BLEU];
+        board.mobilite[ROUGE] = this.mobilite[ROUGE];
+        board.motifs[BLEU] = this.motifs[BLEU];
+        board.motifs[ROUGE] = this.motifs[ROUGE];
+        board.suiviMotifs = this.suiviMotifs;
+        board.hash = this.hash;
+        return board;
+    }
+
+    /**
+     * Calcule entièrement la clé de Zobrist de la position
+     *
+     * @return clé de la position
+     */
+    long computeHash() {
+        long key = side == ROUGE ? ZOBRIST_TRAIT : 0;
+        for (int color = BLEU; color <= ROUGE; color++) {
+            for (long p = pions[color]; p != 0; p &= p - 1) {
+                key ^= ZOBRIST[color][Long.numberOfTrailingZeros(p)];
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Indice du bit correspondant à une case
+     *
+     * @param row ligne (0 pour A)
+     * @param col colonne
+     * @return indice dans [0, 56[
+     */
+    static int index(int row, int col) {
+        return row * NB_COLONNES + col;
+    }
+
+    /**
+     * Case désignée par une chaîne au format Lc, jouable ou non
+     *
+     * @param lc nom de case (par exemple "F4")
+     * @return indice dans [0, 56[, -1 si la chaîne n'est pas un nom de case
+     */
+    static int notationIndex(String lc) {
+        if (lc.length() != 2) {
+            return -1;
+        }
+        int row = lc.charAt(0) - 'A';
+        int col = lc.charAt(1) - '0';
+        if (row < 0 || row >= NB_LIGNES || col < 0 || col >= NB_COLONNES) {
+            return -1;
+        }
+        return index(row, col);
+    }
+
+    /**
+     * Code un coup dans un int : case source sur les bits 6 à 11, destination sur les bits 0 à 5
+     *
+     * @param src case source
+     * @param dst case destination
+     * @return coup codé
+     */
+    static int move(int src, int dst) {
+        return src << 6 | dst;
+    }
+
+    /**
+     * @param move coup codé par move(int, int)
+     * @return case source du coup
+     */
+    static int moveSrc(int move) {
+        return move >>> 6;
+    }
+
+    /**
+     * @param move coup codé par move(int, int)
+     * @return case destination du coup
+     */
+    static int moveDest(int move) {
+        return move & 0x3F;
+    }
+
+    /**
+     * Indice de couleur à partir du caractère utilisé dans state
+     *
+     * @param couleur 'B' ou 'R'
+     * @return BLEU, ROUGE ou -1 si le caractère n'est pas une couleur
+     */
+    static int colorIndex(char couleur) {
+        switch (couleur) {
+            case 'B':
+                return BLEU;
+            case 'R':
+                return ROUGE;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Caractère de la case au format de StuckWin.state
+     *
+     * @param sq indice de la case
+     * @return 'B', 'R', '.' ou '-'
+     */
+    char get(int sq) {
+        long bit = 1L << sq;
+        if ((JOUABLE & bit) == 0) {
+            return '-';
+        } else if ((pions[BLEU] & bit) != 0) {
+            return 'B';
+        } else if ((pions[ROUGE] & bit) != 0) {
+            return 'R';
+        }
+        return StuckWin.VIDE;
+    }
+
+    /**
+     * @return masque des cases jouables inoccupées
+     */
+    long empty() {
+        return JOUABLE & ~(pions[BLEU] | pions[ROUGE]);
+    }
+
+    /**
+     * Cases atteignables en un pas vers l'avant par au moins un des pions donnés.
+     * Bleu avance de -8, -7 et +1, rouge de +8, +7 et -1.
+     *
+     * @param color BLEU ou ROUGE
+     * @param from  masque des pions à déplacer
+     * @return masque des destinations libres
+     */
+    long targets(int color, long from) {
+        long dirs = color == BLEU
+                ? (from >>> 8) | (from >>> 7) | (from << 1)
+                : (from << 8) | (from << 7) | (from >>> 1);
+        return dirs & empty();
+    }
+
+    /**
+     * Nombre de couples (pion, destination) jouables pour les pions donnés
+     *
+     * @param color BLEU ou ROUGE
+     * @param from  masque des pions considérés
+     * @return nombre de mouvements possibles
+     */
+    int mobility(int color, long from) {
+        long vides = empty();
+        if (color == BLEU) {
+            return Long.bitCount((from >>> 8) & vides)
+                    + Long.bitCount((from >>> 7) & vides)
+                    + Long.bitCount((from << 1) & vides);
+        }
+        return Long.bitCount((from << 8) & vides)
+                + Long.bitCount((from << 7) & vides)
+                + Long.bitCount((from >>> 1) & vides);
+    }
+
+    /**
+     * Calcule les sommes de motifs et les fait tenir à jour par les coups suivants.
+     * Le suivi coûte un peu à chaque coup : seuls les plateaux évalués l'activent.
+     */
+    void suivreMotifs() {
+        suiviMotifs = true;
+        motifs[BLEU] = motifs(BLEU, pions[BLEU]);
+        motifs[ROUGE] = motifs(ROUGE, pions[ROUGE]);
+    }
+
+    /**
+     * Motif du pion situé en sq (voir POIDS)
+     *
+     * @param color couleur du pion
+     * @param sq    case du pion
+     * @return motif de 0 à 63
+     */
+    int motif(int color, int sq) {
+        long own = pions[color];
+        long opp = pions[color ^ 1];
+        int base = sq * 3;
+        int[] forward = FORWARD[color];
+        // le bit HORS n'est jamais levé : les cases hors plateau ne valent que par MOTIF_HORS
+        int t0 = forward[base];
+        int t1 = forward[base + 1];
+        int t2 = forward[base + 2];
+        return MOTIF_HORS[color][sq]
+                | (int) (own >>> t0 & 1) | (int) (opp >>> t0 & 1) << 1
+                | (int) (own >>> t1 & 1) << 2 | (int) (opp >>> t1 & 1) << 3
+                | (int) (own >>> t2 & 1) << 4 | (int) (opp >>> t2 & 1) << 5;
+    }
+
+    /**
+     * Somme des poids des motifs des pions donnés
+     *
+     * @param color BLEU ou ROUGE
+     * @param from  masque des pions considérés
+     * @return valeur des pions
+     */
+    int motifs(int color, long from) {
+        int[] poids = POIDS[color];
+        int total = 0;
+        for (long p = from; p != 0; p &= p - 1) {
+            int sq = Long.numberOfTrailingZeros(p);
+            total += poids[sq * NB_MOTIFS + motif(color, sq)];
+        }
+        return total;
+    }
+
+    /**
+     * Remplace les poids des motifs par ceux d'un fichier écrit par saveWeights.
+     * Les plateaux déjà construits gardent les sommes calculées avec les anciens poids.
+     *
+     * @param file fichier de poids
+     * @throws IOException si le fichier est illisible ou n'est pas un fichier de poids
+     */
+    static void loadWeights(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC_POIDS || in.readInt() != NB_CASES || in.readInt() != NB_MOTIFS) {
+                throw new IOException(file + " n'est pas un fichier de poids de motifs StuckWin");
+            }
+            int[][] poids = new int[2][NB_CASES * NB_MOTIFS];
+            for (int[] table : poids) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = in.readInt();
+                }
+            }
+            System.arraycopy(poids[BLEU], 0, POIDS[BLEU], 0, poids[BLEU].length);
+            System.arraycopy(poids[ROUGE], 0, POIDS[ROUGE], 0, poids[ROUGE].length);
+        }
+    }
+
+    /**
+     * Écrit les poids courants des motifs : entête, puis un int par (couleur, case, motif)
+     *
+     * @param file fichier à écrire
+     * @throws IOException en cas d'erreur d'écriture
+     */
+    static void saveWeights(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC_POIDS);
+            out.writeInt(NB_CASES);
+            out.writeInt(NB_MOTIFS);
+            for (int[] table : POIDS) {
+                for (int poids : table) {
+                    out.writeInt(poids);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pions qui ne pourront plus jamais bouger : toutes leurs cases avant sont hors
+     * du plateau ou portent elles-mêmes un tel pion. Un pion ne quittant jamais sa
+     * case qu'en avançant, l'ensemble ne fait que grandir au fil de la partie.
+     *
+     * @return masque des pions immobiles des deux couleurs
+     */
+    long immobiles() {
+        long morts = 0;
+        while (true) {
+            // cases qui ne se libéreront plus ; hors du mot, les décalages amènent des cases hors plateau
+            long b = morts | ~JOUABLE;
+            long suivant = (pions[BLEU] & (b << 8 | 0xFFL) & (b << 7 | 0x7FL) & (b >>> 1 | 1L << 63))
+                    | (pions[ROUGE] & (b >>> 8 | 0xFFL << 56) & (b >>> 7 | 0x7FL << 57) & (b << 1 | 1L));
+            if (suivant == morts) {
+                return morts;
+            }
+            morts = suivant;
+        }
+    }
+
+    /**
+     * Destinations libres du pion situé en sq, sous forme d'un masque de trois bits :
+     * le bit k est levé si la case FORWARD[color][sq * 3 + k] est libre.
+     * Vaut 0 si la case ne porte pas un pion de la couleur.
+     *
+     * @param color BLEU ou ROUGE
+     * @param sq    case du pion
+     * @return masque des destinations (0 à 7)
+     */
+    int destinations(int color, int sq) {
+        long vides = empty();
+        int base = sq * 3;
+        int[] forward = FORWARD[color];
+        int dests = (int) (vides >>> forward[base] & 1)
+                | (int) (vides >>> forward[base + 1] & 1) << 1
+                | (int) (vides >>> forward[base + 2] & 1) << 2;
+        return dests & -(int) (pions[color] >>> sq & 1);
+    }
+
+    /**
+     * Écrit les coups légaux de la couleur dans le tampon fourni, sans allocation.
+     * Les coups sont produits direction par direction à partir d'un décalage du
+     * bitboard des pions.
+     *
+     * @param color BLEU ou ROUGE
+     * @param moves tampon d'au moins MAX_MOVES coups codés par move(int, int)
+     * @return nombre de coups écrits
+     */
+    int generateMoves(int color, int[] moves) {
+        long p = pions[color];
+        long vides = empty();
+        int n;
+        if (color == BLEU) {
+            n = emit(moves, 0, (p >>> 8) & vides, -8);
+            n = emit(moves, n, (p >>> 7) & vides, -7);
+            n = emit(moves, n, (p << 1) & vides, 1);
+        } else {
+            n = emit(moves, 0, (p << 8) & vides, 8);
+            n = emit(moves, n, (p << 7) & vides, 7);
+            n = emit(moves, n, (p >>> 1) & vides, -1);
+        }
+        return n;
+    }
+
+    /**
+     * Ajoute au tampon un coup par destination, la source étant dst - delta
+     */
+    private static int emit(int[] moves, int n, long dests, int delta) {
+        while (dests != 0) {
+            int dst = Long.numberOfTrailingZeros(dests);
+            moves[n++] = move(dst - delta, dst);
+            dests &= dests - 1;
+        }
+        return n;
+    }
+
+    /**
+     * Vérifie que dst est une destination libre d'un pion de la couleur situé en src
+     *
+     * @param color BLEU ou ROUGE
+     * @param src   case source
+     * @param dst   case destination
+     * @return vrai si le déplacement est légal
+     */
+    boolean isLegal(int color, int src, int dst) {
+        return (pions[color] & (1L << src)) != 0 && (FORWARD_MASK[color][src] & empty() & (1L << dst)) != 0;
+    }
+
+    /**
+     * Déplace un pion sans contrôle de légalité et met à jour les mobilités, et les motifs s'ils sont suivis.
+     * Seuls les pions situés en src ou dst, ou ayant src ou dst comme case avant,
+     * voient leurs destinations et leur motif changer : leur contribution est retirée
+     * avant le déplacement puis rajoutée après.
+     *
+     * @param color BLEU ou ROUGE
+     * @param src   case source
+     * @param dst   case destination
+     */
+    void move(int color, int src, int dst) {
+        long touched = (1L << src) | (1L << dst);
+        long zoneBleu = BACKWARD_MASK[BLEU][src] | BACKWARD_MASK[BLEU][dst] | touched;
+        long zoneRouge = BACKWARD_MASK[ROUGE][src] | BACKWARD_MASK[ROUGE][dst] | touched;
+        mobilite[BLEU] -= mobility(BLEU, pions[BLEU] & zoneBleu);
+        mobilite[ROUGE] -= mobility(ROUGE, pions[ROUGE] & zoneRouge);
+        if (suiviMotifs) {
+            motifs[BLEU] -= motifs(BLEU, pions[BLEU] & zoneBleu);
+            motifs[ROUGE] -= motifs(ROUGE, pions[ROUGE] & zoneRouge);
+        }
+        pions[color] ^= touched;
+        mobilite[BLEU] += mobility(BLEU, pions[BLEU] & zoneBleu);
+        mobilite[ROUGE] += mobility(ROUGE, pions[ROUGE] & zoneRouge);
+        if (suiviMotifs) {
+            motifs[BLEU] += motifs(BLEU, pions[BLEU] & zoneBleu);
+            motifs[ROUGE] += motifs(ROUGE, pions[ROUGE] & zoneRouge);
+        }
+        hash ^= ZOBRIST[color][src] ^ ZOBRIST[color][dst];
+    }
+
+    /**
+     * Donne le trait à une couleur en mettant la clé à jour
+     *
+     * @param color BLEU ou ROUGE
+     */
+    void setSide(int color) {
+        hash ^= ZOBRIST_TRAIT * (side ^ color);
+        side = color;
+    }
+
+    /**
+     * Joue un coup légal et donne le trait à l'adversaire.
+     * Le jeton renvoyé suffit à unmakeMove pour revenir à la position précédente :
+     * coup sur les bits 0 à 11, couleur jouée sur le bit 12, trait précédent sur le bit 13.
+     *
+     * @param color BLEU ou ROUGE
+     * @param move  coup codé par move(int, int)
+     * @return jeton d'annulation
+     */
+    int makeMove(int color, int move) {
+        int undo = move | color << 12 | side << 13;
+        move(color, moveSrc(move), moveDest(move));
+        setSide(color ^ 1);
+        return undo;
+    }
+
+    /**
+     * Annule en temps constant le coup joué par makeMove
+     *
+     * @param undo jeton renvoyé par makeMove
+     */
+    void unmakeMove(int undo) {
+        int move = undo & 0xFFF;
+        move(undo >>> 12 & 1, moveSrc(move), moveDest(move));
+        setSide(undo >>> 13 & 1);
+    }
+}
@@ -0,0 +1,238 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Bibliothèque d'ouvertures extraite des traces StuckWin_XX.csv.
+ *
+ * Chaque coup OK des premiers demi-coups d'une trace est rejoué depuis la position
+ * de départ ; le couple (clé de Zobrist de la position avant le coup, coup) compte
+ * une partie, et une victoire si la couleur qui a joué le coup a gagné la partie.
+ * Les parties qui ne sont pas allées à leur terme sont ignorées.
+ * Le fichier contient ces couples triés par clé, sur 18 octets chacun :
+ * clé (8), coup (2), nombre de parties (4), nombre de victoires (4).
+ */
+public class Book {
+    static final String FICHIER_DEFAUT = "StuckWin.book";
+    static final int DEMI_COUPS_DEFAUT = 16;
+    // nombre de parties en dessous duquel un coup du livre n'est pas joué
+    static final int MIN_PARTIES = 2;
+    private static final int MAGIC = 0x5357424B; // "SWBK"
+    private static final int VERSION = 1;
+    private static final Pattern TRACE = Pattern.compile("StuckWin_(\\d+)\\.csv");
+
+    private static Book defaut;
+    private static boolean defautCharge;
+
+    final long[] keys;
+    final short[] moves;
+    final int[] counts;
+    final int[] wins;
+
+    private Book(int size) {
+        this.keys = new long[size];
+        this.moves = new short[size];
+        this.counts = new int[size];
+        this.wins = new int[size];
+    }
+
+    /**
+     * Bibliothèque du fichier StuckWin.book du répertoire courant, lue une seule fois
+     *
+     * @return la bibliothèque, null si le fichier n'existe pas ou est invalide
+     */
+    static synchronized Book defaut() {
+        if (!defautCharge) {
+            defautCharge = true;
+            File file = new File(FICHIER_DEFAUT);
+            if (file.exists()) {
+                try {
+                    defaut = open(file);
+                } catch (IOException e) {
+                    System.out.println(e);
+                }
+            }
+        }
+        return defaut;
+    }
+
+    /**
+     * Lit une bibliothèque écrite par build
+     *
+     * @param file fichier de la bibliothèque
+     * @return la bibliothèque
+     * @throws IOException si le fichier est illisible ou n'est pas une bibliothèque
+     */
+    static Book open(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " n'est pas une bibliothèque d'ouvertures StuckWin");
+            }
+            Book book = new Book(in.readInt());
+            for (int i = 0; i < book.keys.length; i++) {
+                book.keys[i] = in.readLong();
+                book.moves[i] = in.readShort();
+                book.counts[i] = in.readInt();
+                book.wins[i] = in.readInt();
+            }
+            return book;
+        }
+    }
+
+    /**
+     * Cherche par dichotomie le coup du livre ayant le meilleur taux de victoire
+     * parmi ceux joués dans au moins MIN_PARTIES parties.
+     *
+     * @param b     position
+     * @param color couleur au trait
+     * @return indice de l'entrée choisie, -1 si la position n'est pas dans le livre
+     */
+    int lookup(Board b, int color) {
+        long key = b.hash ^ (Board.ZOBRIST_TRAIT * (b.side ^ color));
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int best = -1;
+        for (int i = lo; i < keys.length && keys[i] == key; i++) {
+            if (counts[i] >= MIN_PARTIES && b.isLegal(color, Board.moveSrc(moves[i]), Board.moveDest(moves[i]))
+                    && (best < 0 || (long) wins[i] * counts[best] > (long) wins[best] * counts[i])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return nombre de couples (position, coup) du livre
+     */
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * Construit la bibliothèque à partir des traces StuckWin_XX.csv d'un répertoire
+     *
+     * @param dir      répertoire des traces
+     * @param maxPlies nombre de demi-coups retenus au début de chaque partie
+     * @param out      fichier à écrire
+     * @throws IOException en cas d'erreur d'écriture
+     */
+    static void build(File dir, int maxPlies, File out) throws IOException {
+        File[] traces = dir.listFiles(f -> TRACE.matcher(f.getName()).matches());
+        if (traces == null) {
+            traces = new File[0];
+        }
+        Arrays.sort(traces);
+        Board start = new StuckWin().board;
+        // clé de position -> coup -> {parties, victoires}
+        Map<Long, Map<Integer, int[]>> stats = new HashMap<>();
+        int nbParties = 0;
+        TraceParser parser = new TraceParser();
+        for (File trace : traces) {
+            try {
+                if (addTrace(parser, trace, start, maxPlies, stats)) {
+                    nbParties++;
+                }
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
+        List<long[]> entries = new ArrayList<>();
+        for (Map.Entry<Long, Map<Integer, int[]>> position : stats.entrySet()) {
+            for (Map.Entry<Integer, int[]> move : position.getValue().entrySet()) {
+                int[] s = move.getValue();
+                entries.add(new long[] {position.getKey(), move.getKey(), s[0], s[1]});
+            }
+        }
+        entries.sort((x, y) -> x[0] != y[0] ? Long.compare(x[0], y[0]) : Long.compare(y[2], x[2]));
+        try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)))) {
+            o.writeInt(MAGIC);
+            o.writeInt(VERSION);
+            o.writeInt(entries.size());
+            for (long[] e : entries) {
+                o.writeLong(e[0]);
+                o.writeShort((int) e[1]);
+                o.writeInt((int) e[2]);
+                o.writeInt((int) e[3]);
+            }
+        }
+        System.out.println(traces.length + " traces lues, " + nbParties + " parties terminées, "
+                + entries.size() + " coups écrits dans " + out);
+    }
+
+    /**
+     * Rejoue les coups OK d'une trace, lue en flux, et ajoute ses premiers demi-coups aux
+     * statistiques si la partie est allée à son terme.
+     * La lecture s'arrête au premier coup illégal.
+     *
+     * @return vrai si la partie est allée jusqu'à son terme
+     */
+    private static boolean addTrace(TraceParser parser, File trace, Board start, int maxPlies,
+                                    Map<Long, Map<Integer, int[]>> stats) throws IOException {
+        Board b = start.copy();
+        List<long[]> played = new ArrayList<>();
+        boolean[] arret = {false};
+        parser.lire(trace, (c, src, dst, result) -> {
+            int color = Board.colorIndex(c);
+            if (arret[0] || result != StuckWin.Result.OK.ordinal()) {
+                return;
+            }
+            if (color < 0 || !jouable(src) || !jouable(dst) || !b.isLegal(color, src, dst)) {
+                arret[0] = true;
+                return;
+            }
+            b.setSide(color);
+            played.add(new long[] {b.hash, Board.move(src, dst), color});
+            b.makeMove(color, Board.move(src, dst));
+        });
+        // le joueur au trait sans coup jouable a gagné
+        boolean terminee = !played.isEmpty() && b.mobilite[b.side] == 0;
+        if (!terminee) {
+            // une partie abandonnée n'a pas de gagnant : elle fausserait les taux de victoire
+            return false;
+        }
+        for (int i = 0; i < played.size() && i < maxPlies; i++) {
+            long[] p = played.get(i);
+            int[] s = stats.computeIfAbsent(p[0], k -> new HashMap<>()).computeIfAbsent((int) p[1], k -> new int[2]);
+            s[0]++;
+            if (p[2] == b.side) {
+                s[1]++;
+            }
+        }
+        return terminee;
+    }
+
+    /**
+     * @param sq indice de case lu dans la trace, -1 si ce n'est pas un nom de case
+     * @return vrai si la case est jouable
+     */
+    private static boolean jouable(int sq) {
+        return sq >= 0 && (Board.JOUABLE & (1L << sq)) != 0;
+    }
+}
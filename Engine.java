@@ -0,0 +1,550 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moteur de recherche de StuckWin : négamax alpha-bêta en approfondissement
+ * itératif, borné par un budget de temps. Le joueur qui ne peut plus jouer
+ * lorsqu'il a le trait gagne la partie.
+ *
+ * Avec plusieurs fils (Lazy SMP), chaque fil cherche la même racine en partageant
+ * la table de transposition ; les fils auxiliaires partent d'une profondeur décalée
+ * et d'un ordre des coups de la racine différent, ce qui remplit la table de résultats
+ * utiles au fil principal.
+ *
+ * En mode déterministe, la recherche va jusqu'à maxDepth sans limite de temps, le
+ * résultat est celui du fil principal et une entrée de la table ne sert de score que
+ * si elle a exactement la profondeur demandée : chaque score est alors la valeur
+ * minimax à cette profondeur, quel que soit le contenu de la table, et le coup joué
+ * ne dépend ni du nombre de fils ni de leur vitesse.
+ */
+public class Engine implements Searcher {
+    static final int INFINI = 1_000_000;
+    static final int VICTOIRE = 100_000;
+    static final int MAX_PLY = 128;
+    // profondeur par défaut du mode déterministe
+    static final int PROFONDEUR_DETERMINISTE = 8;
+    static final int TT_MO_DEFAUT = 32;
+    // au-delà, un score est une victoire ou une défaite forcée
+    static final int SCORE_GAGNANT = VICTOIRE - MAX_PLY;
+    // l'historique est divisé par deux quand une valeur dépasse ce seuil
+    static final int HISTORY_MAX = 1 << 24;
+
+    final TranspositionTable tt;
+    final int nbThreads;
+    // table de finales consultée dans l'arbre, null si aucune
+    Tablebase tablebase = Tablebase.defaut();
+    // classe de la racine dans la table, valable pour tout l'arbre, -1 si elle n'y est pas : fixée une fois par recherche
+    private int classeTable = -1;
+    // si vrai, recherche reproductible à la profondeur maxDepth, sans limite de temps
+    boolean deterministe;
+    // tri des coups par coups tueurs et historique (sinon seul le coup de la table passe en premier)
+    boolean ordering = true;
+    // profondeur maximale de l'approfondissement itératif
+    int maxDepth = MAX_PLY - 1;
+
+    // positionné par le chronomètre ou de l'extérieur pour interrompre la recherche
+    volatile boolean stop;
+    long deadline;
+    // meilleure itération terminée publiée par un fil : profondeur, score et coup
+    private final AtomicLong published = new AtomicLong();
+
+    int bestMove = -1;
+    int bestScore;
+    int depthReached;
+    long startNanos;
+    // statistiques de la dernière recherche, additionnées sur tous les fils
+    final SearchStats stats = new SearchStats();
+
+    Engine() {
+        this(TT_MO_DEFAUT, 1);
+    }
+
+    /**
+     * @param ttMo      taille de la table de transposition en mégaoctets
+     * @param nbThreads nombre de fils de recherche
+     */
+    Engine(int ttMo, int nbThreads) {
+        this.tt = new TranspositionTable(ttMo);
+        this.nbThreads = Math.max(1, nbThreads);
+    }
+
+    /**
+     * Cherche le meilleur coup de la couleur dans la position donnée, qui n'est pas modifiée.
+     * Renvoie le meilleur coup de l'itération terminée la plus profonde, ou de l'itération
+     * en cours du fil principal si son premier coup a déjà été entièrement examiné.
+     *
+     * @param root   position à analyser
+     * @param color  Board.BLEU ou Board.ROUGE
+     * @param timeMs budget de temps en millisecondes, ignoré en mode déterministe
+     * @return coup codé par Board.move, -1 si la couleur ne peut pas jouer
+     */
+    @Override
+    public int search(Board root, int color, long timeMs) {
+        long start = System.nanoTime();
+        this.startNanos = start;
+        this.deadline = deterministe ? Long.MAX_VALUE : start + timeMs * 1_000_000L;
+        this.stop = false;
+        this.published.set(0);
+        this.bestMove = -1;
+        this.bestScore = 0;
+        this.depthReached = 0;
+        this.tt.newSearch();
+        this.classeTable = tablebase == null ? -1 : tablebase.classe(root);
+
+        Worker[] workers = new Worker[nbThreads];
+        for (int id = 0; id < nbThreads; id++) {
+            workers[id] = new Worker(this, root, color, id);
+        }
+        Worker main = workers[0];
+        if (main.nbRootMoves > 0) {
+            Thread[] helpers = new Thread[nbThreads - 1];
+            for (int id = 1; id < nbThreads; id++) {
+                helpers[id - 1] = new Thread(workers[id]::iterate, "StuckWin-search-" + id);
+                helpers[id - 1].start();
+            }
+            main.iterate();
+            this.stop = true;
+            for (Thread helper : helpers) {
+                try {
+                    helper.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            combine(workers);
+        }
+        stats.reset();
+        for (Worker worker : workers) {
+            stats.add(worker.stats);
+        }
+        stats.copyIterations(main.stats);
+        stats.depth = this.depthReached;
+        stats.score = this.bestScore;
+        stats.nbThreads = this.nbThreads;
+        stats.elapsedNanos = System.nanoTime() - start;
+        return this.bestMove;
+    }
+
+    /**
+     * Choisit le résultat de la recherche parmi ceux des fils : celui du fil principal
+     * en mode déterministe, sinon l'itération la plus profonde publiée par un fil
+     *
+     * @param workers fils de la recherche, le fil principal en premier
+     */
+    private void combine(Worker[] workers) {
+        Worker main = workers[0];
+        this.bestMove = main.bestMove;
+        this.bestScore = main.bestScore;
+        this.depthReached = main.depthReached;
+        if (!deterministe) {
+            long p = published.get();
+            int depth = (int) (p >>> 32);
+            if (depth > depthReached) {
+                this.bestMove = (int) (p & 0xFFF);
+                this.bestScore = (int) (p >>> 12 & 0xFFFFF) - (1 << 19);
+                this.depthReached = depth;
+            }
+        }
+    }
+
+    /**
+     * Publie une itération terminée si elle est plus profonde que la meilleure connue
+     */
+    void publish(int depth, int score, int move) {
+        long value = (long) depth << 32 | (long) (score + (1 << 19)) << 12 | move;
+        published.accumulateAndGet(value, (cur, v) -> (v >>> 32) > (cur >>> 32) ? v : cur);
+    }
+
+    /**
+     * @return résumé d'une ligne de la dernière recherche
+     */
+    @Override
+    public String report() {
+        return stats.toString();
+    }
+
+    @Override
+    public SearchStats stats() {
+        return stats;
+    }
+
+    /**
+     * Mesure le débit de la recherche parallèle depuis la position de départ
+     * pour 1, 2, 4... fils jusqu'à maxThreads, et affiche l'accélération obtenue.
+     * En mode déterministe, chaque mesure cherche jusqu'à la profondeur donnée et
+     * doit trouver le même coup et le même score quel que soit le nombre de fils.
+     *
+     * @param maxThreads nombre maximal de fils
+     * @param timeMs     temps de recherche par mesure en millisecondes
+     * @param profondeur profondeur du mode déterministe, 0 pour une recherche bornée par le temps
+     */
+    static void benchSmp(int maxThreads, long timeMs, int profondeur) {
+        Board start = new StuckWin().board;
+        long base = 0;
+        System.out.println(profondeur > 0 ? "Mode déterministe, profondeur " + profondeur : "Recherche de " + timeMs + " ms");
+        System.out.println("fils\tnoeuds/s\taccélération\tprofondeur\tcoup\tscore");
+        for (int t = 1; t <= maxThreads; t = (t < maxThreads && t * 2 > maxThreads) ? maxThreads : t * 2) {
+            Engine engine = new Engine(TT_MO_DEFAUT * 4, t);
+            if (profondeur > 0) {
+                engine.deterministe = true;
+                engine.maxDepth = profondeur;
+            }
+            engine.search(start, start.side, timeMs);
+            long nps = engine.stats.nodesPerSecond();
+            base = t == 1 ? nps : base;
+            System.out.println(t + "\t" + nps + "\t" + String.format("%.2f", (double) nps / base)
+                    + "\t\t" + engine.depthReached + "\t\t" + Board.NOTATION[Board.moveSrc(engine.bestMove)] + "->"
+                    + Board.NOTATION[Board.moveDest(engine.bestMove)] + "\t" + engine.bestScore);
+        }
+    }
+
+    /**
+     * Compte les nœuds d'une recherche à profondeur fixe sur un jeu fixe de positions
+     * (départ puis positions obtenues par des coups aléatoires de graine fixe),
+     * sans puis avec coups tueurs et historique, et affiche le taux de coupure au premier coup.
+     *
+     * @param depth profondeur de recherche
+     */
+    static void benchOrdering(int depth) {
+        Board[] positions = new Board[8];
+        SplittableRandom random = new SplittableRandom(2022);
+        int[] moves = new int[Board.MAX_MOVES];
+        Board b = new StuckWin().board.copy();
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = b.copy();
+            for (int ply = 0; ply < 4 && b.mobilite[b.side] != 0; ply++) {
+                int n = b.generateMoves(b.side, moves);
+                b.makeMove(b.side, moves[random.nextInt(n)]);
+            }
+        }
+        System.out.println("tri\tnoeuds\tcoupures\tau premier coup");
+        for (boolean ordering : new boolean[]{false, true}) {
+            long nodes = 0;
+            long cutoffs = 0;
+            long first = 0;
+            for (Board position : positions) {
+                Engine engine = new Engine(TT_MO_DEFAUT, 1);
+                engine.ordering = ordering;
+                engine.maxDepth = depth;
+                engine.search(position, position.side, 86_400_000L);
+                nodes += engine.stats.nodes;
+                cutoffs += engine.stats.cutoffs;
+                first += engine.stats.firstMoveCutoffs;
+            }
+            System.out.println((ordering ? "oui" : "non") + "\t" + nodes + "\t" + cutoffs + "\t\t"
+                    + String.format("%.1f%%", cutoffs == 0 ? 0.0 : 100.0 * first / cutoffs));
+        }
+    }
+
+    /**
+     * Convertit un score de victoire relatif à la racine en score relatif au nœud, pour la table
+     */
+    static int toTT(int score, int ply) {
+        if (score >= SCORE_GAGNANT) {
+            return score + ply;
+        } else if (score <= -SCORE_GAGNANT) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    /**
+     * Convertit un score lu dans la table en score relatif à la racine
+     */
+    static int fromTT(int score, int ply) {
+        if (score >= SCORE_GAGNANT) {
+            return score - ply;
+        } else if (score <= -SCORE_GAGNANT) {
+            return score + ply;
+        }
+        return score;
+    }
+
+    /**
+     * Évaluation statique du point de vue du joueur au trait : on cherche à être
+     * bloqué soi-même tout en laissant des coups à l'adversaire. Chaque camp est
+     * noté par la somme des poids des motifs de ses pions, tenue à jour par le
+     * plateau ; avec les poids par défaut, cette somme est sa mobilité.
+     *
+     * @param b position à évaluer
+     * @return score, positif si la position est favorable au joueur au trait
+     */
+    static int evaluate(Board b) {
+        return b.motifs[b.side ^ 1] - b.motifs[b.side];
+    }
+
+    /**
+     * État propre à un fil de recherche : copie de la position, tampons de coups
+     * et meilleur résultat trouvé par ce fil
+     */
+    static final class Worker {
+        final Engine engine;
+        final int id;
+        final Board board;
+        final int[][] moves = new int[MAX_PLY][Board.MAX_MOVES];
+        final int[] rootMoves = new int[Board.MAX_MOVES];
+        final int nbRootMoves;
+        // notes des coups pour le tri, deux coups tueurs par ply et historique
+        // indexé par (couleur, case source, case destination)
+        final int[][] scores = new int[MAX_PLY][Board.MAX_MOVES];
+        final int[][] killers = new int[MAX_PLY][2];
+        final int[] history = new int[2 << 12];
+        // compteurs propres au fil, additionnés par le moteur en fin de recherche
+        final SearchStats stats = new SearchStats();
+        int bestMove;
+        int bestScore;
+        int depthReached;
+
+        Worker(Engine engine, Board root, int color, int id) {
+            this.engine = engine;
+            this.id = id;
+            this.board = root.copy();
+            this.board.setSide(color);
+            this.board.suivreMotifs();
+            this.nbRootMoves = this.board.generateMoves(color, this.rootMoves);
+            this.bestMove = this.nbRootMoves > 0 ? this.rootMoves[id % this.nbRootMoves] : -1;
+            int ttMove = TranspositionTable.move(engine.tt.probe(this.board.hash));
+            this.stats.ttProbes++;
+            // en mode déterministe, l'ordre de la racine ne doit rien aux recherches précédentes
+            for (int i = 0; i < this.nbRootMoves && id == 0 && !engine.deterministe; i++) {
+                if (this.rootMoves[i] == ttMove) {
+                    this.bestMove = ttMove;
+                }
+            }
+        }
+
+        /**
+         * Approfondissement itératif jusqu'à épuisement du temps ou résultat forcé.
+         * Les fils auxiliaires impairs commencent un cran plus profond.
+         */
+        void iterate() {
+            for (int depth = 1 + (id & 1); depth <= engine.maxDepth && !engine.stop; depth++) {
+                searchRoot(depth);
+                if (engine.stop) {
+                    break;
+                }
+                depthReached = depth;
+                if (id == 0) {
+                    stats.endIteration(engine.startNanos);
+                }
+                engine.publish(depth, bestScore, bestMove);
+                store(board.hash, bestMove, bestScore, depth, TranspositionTable.EXACT);
+                // une victoire ou une défaite forcée ne changera plus en allant plus loin
+                if (Math.abs(bestScore) >= SCORE_GAGNANT) {
+                    if (id == 0) {
+                        engine.stop = true;
+                    }
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Examine les coups de la racine, le meilleur coup de l'itération précédente en premier
+         *
+         * @param depth profondeur de l'itération
+         */
+        void searchRoot(int depth) {
+            for (int i = 0; i < nbRootMoves; i++) {
+                if (rootMoves[i] == bestMove) {
+                    rootMoves[i] = rootMoves[0];
+                    rootMoves[0] = bestMove;
+                    break;
+                }
+            }
+            int alpha = -INFINI;
+            for (int i = 0; i < nbRootMoves; i++) {
+                int undo = board.makeMove(board.side, rootMoves[i]);
+                int score = -negamax(depth - 1, 1, -INFINI, -alpha);
+                board.unmakeMove(undo);
+                if (engine.stop) {
+                    return;
+                }
+                if (score > alpha) {
+                    alpha = score;
+                    bestMove = rootMoves[i];
+                    bestScore = score;
+                }
+            }
+        }
+
+        /**
+         * Note les coups d'un nœud : coup de la table, puis coups tueurs du ply, puis historique
+         */
+        private void scoreMoves(int side, int ply, int ttMove, int n) {
+            int[] buffer = moves[ply];
+            int[] score = scores[ply];
+            int killer0 = killers[ply][0];
+            int killer1 = killers[ply][1];
+            int base = side << 12;
+            for (int i = 0; i < n; i++) {
+                int move = buffer[i];
+                if (move == ttMove) {
+                    score[i] = 1 << 30;
+                } else if (move == killer0) {
+                    score[i] = 1 << 29;
+                } else if (move == killer1) {
+                    score[i] = 1 << 28;
+                } else {
+                    score[i] = history[base | move];
+                }
+            }
+        }
+
+        /**
+         * Amène en position i le coup de meilleure note parmi les coups restants (tri par sélection)
+         */
+        private void pickNext(int ply, int i, int n) {
+            int[] buffer = moves[ply];
+            int[] score = scores[ply];
+            int best = i;
+            for (int j = i + 1; j < n; j++) {
+                if (score[j] > score[best]) {
+                    best = j;
+                }
+            }
+            if (best != i) {
+                int move = buffer[i];
+                buffer[i] = buffer[best];
+                buffer[best] = move;
+                int tmp = score[i];
+                score[i] = score[best];
+                score[best] = tmp;
+            }
+        }
+
+        /**
+         * Met à jour coups tueurs et historique après une coupure bêta
+         */
+        private void updateHeuristics(int side, int ply, int depth, int move) {
+            if (killers[ply][0] != move) {
+                killers[ply][1] = killers[ply][0];
+                killers[ply][0] = move;
+            }
+            int index = side << 12 | move;
+            history[index] += depth * depth;
+            if (history[index] > HISTORY_MAX) {
+                for (int i = 0; i < history.length; i++) {
+                    history[i] >>= 1;
+                }
+            }
+        }
+
+        /**
+         * Négamax alpha-bêta
+         *
+         * @param depth profondeur restante
+         * @param ply   distance à la racine
+         * @param alpha borne basse
+         * @param beta  borne haute
+         * @return score du point de vue du joueur au trait
+         */
+        int negamax(int depth, int ply, int alpha, int beta) {
+            stats.nodes++;
+            if ((stats.nodes & 1023) == 0 && System.nanoTime() > engine.deadline) {
+                engine.stop = true;
+            }
+            if (engine.stop) {
+                return 0;
+            }
+            int side = board.side;
+            if (board.mobilite[side] == 0) {
+                return VICTOIRE - ply;
+            }
+            if (engine.classeTable >= 0) {
+                // issue exacte mais sans distance : comptée comme une victoire au coup suivant,
+                // relative au nœud comme les autres victoires pour rester juste dans la table
+                int issue = engine.tablebase.probe(engine.classeTable, board, side);
+                return issue == 1 ? VICTOIRE - ply - 1 : -(VICTOIRE - ply - 1);
+            }
+            if (depth <= 0 || ply >= MAX_PLY - 1) {
+                stats.qnodes++;
+                return evaluate(board);
+            }
+            long key = board.hash;
+            long entry = engine.tt.probe(key);
+            stats.ttProbes++;
+            int ttMove = 0;
+            if (entry != 0) {
+                stats.ttHits++;
+                ttMove = TranspositionTable.move(entry);
+                int ttDepth = TranspositionTable.depth(entry);
+                if (ttDepth == depth || (ttDepth > depth && !engine.deterministe)) {
+                    int ttScore = fromTT(TranspositionTable.score(entry), ply);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.EXACT
+                            || (bound == TranspositionTable.LOWER && ttScore >= beta)
+                            || (bound == TranspositionTable.UPPER && ttScore <= alpha)) {
+                        return ttScore;
+                    }
+                }
+            }
+            int[] buffer = moves[ply];
+            int n = board.generateMoves(side, buffer);
+            if (engine.ordering) {
+                scoreMoves(side, ply, ttMove, n);
+            } else {
+                for (int i = 1; i < n && ttMove != 0; i++) {
+                    if (buffer[i] == ttMove) {
+                        buffer[i] = buffer[0];
+                        buffer[0] = ttMove;
+                        break;
+                    }
+                }
+            }
+            int alphaOrig = alpha;
+            int best = -INFINI;
+            int bestMove = 0;
+            for (int i = 0; i < n; i++) {
+                if (engine.ordering) {
+                    pickNext(ply, i, n);
+                }
+                int undo = board.makeMove(side, buffer[i]);
+                int score = -negamax(depth - 1, ply + 1, -beta, -alpha);
+                board.unmakeMove(undo);
+                if (engine.stop) {
+                    return 0;
+                }
+                if (score > best) {
+                    best = score;
+                    bestMove = buffer[i];
+                    if (score > alpha) {
+                        alpha = score;
+                        if (alpha >= beta) {
+                            stats.cutoffs++;
+                            if (i == 0) {
+                                stats.firstMoveCutoffs++;
+                            }
+                            if (engine.ordering) {
+                                updateHeuristics(side, ply, depth, bestMove);
+                            }
+                            break;
+                        }
+                    }
+                }
+            }
+            int bound = best <= alphaOrig ? TranspositionTable.UPPER
+                    : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            store(key, bestMove, toTT(best, ply), depth, bound);
+            return best;
+        }
+
+        /**
+         * Enregistre une position dans la table en comptant écritures et collisions
+         */
+        private void store(long key, int move, int score, int depth, int bound) {
+            stats.ttStores++;
+            if (engine.tt.store(key, move, score, depth, bound)) {
+                stats.ttCollisions++;
+            }
+        }
+    }
+}
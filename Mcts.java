@@ -0,0 +1,240 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Recherche arborescente Monte-Carlo (UCT) pour StuckWin.
+ * Chaque fil construit son propre arbre (parallélisation à la racine) puis les
+ * visites des coups de la racine sont additionnées ; le coup le plus visité est joué.
+ * Les nœuds d'un arbre sont stockés dans des tableaux primitifs alloués une fois
+ * pour toutes, les enfants d'un nœud occupant des indices consécutifs.
+ */
+public class Mcts implements Searcher {
+    static final int NOEUDS_DEFAUT = 1 << 20;
+    static final double EXPLORATION = 1.4;
+
+    final int nbThreads;
+    private final Tree[] trees;
+    private final ExecutorService pool;
+
+    int bestMove = -1;
+    long playouts;
+    long elapsedNanos;
+
+    Mcts() {
+        this(1, NOEUDS_DEFAUT);
+    }
+
+    /**
+     * @param nbThreads nombre de fils, chacun avec son arbre
+     * @param nbNoeuds  capacité en nœuds de l'arbre de chaque fil
+     */
+    Mcts(int nbThreads, int nbNoeuds) {
+        this.nbThreads = Math.max(1, nbThreads);
+        this.trees = new Tree[this.nbThreads];
+        for (int i = 0; i < this.nbThreads; i++) {
+            this.trees[i] = new Tree(nbNoeuds, i);
+        }
+        this.pool = Executors.newFixedThreadPool(this.nbThreads, r -> {
+            Thread t = new Thread(r, "StuckWin-mcts");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public int search(Board root, int color, long timeMs) {
+        long start = System.nanoTime();
+        long deadline = start + timeMs * 1_000_000L;
+        Board board = root.copy();
+        board.setSide(color);
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.generateMoves(color, moves);
+        this.bestMove = -1;
+        this.playouts = 0;
+        if (n > 0) {
+            Future<?>[] futures = new Future<?>[nbThreads];
+            for (int i = 0; i < nbThreads; i++) {
+                Tree tree = trees[i];
+                futures[i] = pool.submit(() -> tree.run(board, deadline));
+            }
+            long[] visits = new long[n];
+            for (int i = 0; i < nbThreads; i++) {
+                try {
+                    futures[i].get();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                trees[i].addRootVisits(moves, n, visits);
+                this.playouts += trees[i].playouts;
+            }
+            int best = 0;
+            for (int i = 1; i < n; i++) {
+                if (visits[i] > visits[best]) {
+                    best = i;
+                }
+            }
+            this.bestMove = moves[best];
+        }
+        this.elapsedNanos = System.nanoTime() - start;
+        return this.bestMove;
+    }
+
+    @Override
+    public String report() {
+        long perSecond = elapsedNanos == 0 ? 0 : playouts * 1_000_000_000L / elapsedNanos;
+        return "MCTS " + playouts + " parties simulées en " + (elapsedNanos / 1_000_000) + " ms ("
+                + perSecond + " parties/s, " + nbThreads + " fils)";
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Arbre d'un fil. Pour chaque nœud : coup qui y mène, premier enfant (-1 si non développé),
+     * nombre d'enfants, visites et victoires du joueur qui a joué le coup menant au nœud.
+     */
+    static final class Tree {
+        final int[] move;
+        final int[] firstChild;
+        final int[] nbChildren;
+        final int[] visits;
+        final float[] wins;
+        final SplittableRandom random;
+        // chemin dans l'arbre puis coups de la simulation : une partie compte bien moins de 1024 coups
+        final int[] path = new int[1024];
+        final int[] undo = new int[1024];
+        final int[] buffer = new int[Board.MAX_MOVES];
+        int size;
+        long playouts;
+
+        Tree(int capacity, int seed) {
+            this.move = new int[capacity];
+            this.firstChild = new int[capacity];
+            this.nbChildren = new int[capacity];
+            this.visits = new int[capacity];
+            this.wins = new float[capacity];
+            this.random = new SplittableRandom(seed);
+        }
+
+        /**
+         * Répète sélection, développement, simulation et rétropropagation jusqu'à l'échéance
+         *
+         * @param root     position de départ, non modifiée
+         * @param deadline échéance au sens de System.nanoTime
+         */
+        void run(Board root, long deadline) {
+            Board board = root.copy();
+            size = 1;
+            firstChild[0] = -1;
+            visits[0] = 0;
+            wins[0] = 0;
+            playouts = 0;
+            do {
+                for (int i = 0; i < 64; i++) {
+                    iteration(board);
+                }
+            } while (System.nanoTime() < deadline);
+        }
+
+        private void iteration(Board board) {
+            int node = 0;
+            int depth = 0;
+            path[0] = 0;
+            // sélection
+            while (firstChild[node] >= 0 && nbChildren[node] > 0) {
+                node = select(node);
+                undo[depth++] = board.makeMove(board.side, move[node]);
+                path[depth] = node;
+            }
+            // développement
+            if (board.mobilite[board.side] != 0 && firstChild[node] < 0 && visits[node] > 0) {
+                int n = board.generateMoves(board.side, buffer);
+                if (size + n <= move.length) {
+                    firstChild[node] = size;
+                    nbChildren[node] = n;
+                    for (int i = 0; i < n; i++) {
+                        move[size] = buffer[i];
+                        firstChild[size] = -1;
+                        nbChildren[size] = 0;
+                        visits[size] = 0;
+                        wins[size] = 0;
+                        size++;
+                    }
+                    node = firstChild[node] + random.nextInt(n);
+                    undo[depth++] = board.makeMove(board.side, move[node]);
+                    path[depth] = node;
+                }
+            }
+            // simulation
+            int top = depth;
+            while (board.mobilite[board.side] != 0 && top < undo.length) {
+                int n = board.generateMoves(board.side, buffer);
+                undo[top++] = board.makeMove(board.side, buffer[random.nextInt(n)]);
+            }
+            int winner = board.side;
+            while (top > depth) {
+                board.unmakeMove(undo[--top]);
+            }
+            playouts++;
+            // rétropropagation : le gain revient au joueur qui a joué le coup menant au nœud
+            for (int i = depth; i >= 0; i--) {
+                int nodeI = path[i];
+                visits[nodeI]++;
+                if (i > 0) {
+                    board.unmakeMove(undo[i - 1]);
+                }
+                if (i > 0 && board.side == winner) {
+                    wins[nodeI]++;
+                }
+            }
+        }
+
+        /**
+         * Enfant maximisant le critère UCT, les enfants jamais visités d'abord
+         */
+        private int select(int node) {
+            int first = firstChild[node];
+            int last = first + nbChildren[node];
+            double logParent = Math.log(visits[node]);
+            int best = first;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int c = first; c < last; c++) {
+                if (visits[c] == 0) {
+                    return c;
+                }
+                double value = wins[c] / visits[c] + EXPLORATION * Math.sqrt(logParent / visits[c]);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = c;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Ajoute les visites des enfants de la racine à celles des coups correspondants
+         */
+        void addRootVisits(int[] moves, int n, long[] total) {
+            int first = firstChild[0];
+            for (int c = first; c >= 0 && c < first + nbChildren[0]; c++) {
+                for (int i = 0; i < n; i++) {
+                    if (moves[i] == move[c]) {
+                        total[i] += visits[c];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Comptage des feuilles de l'arbre des coups légaux (perft), pour valider le
+ * générateur de coups et mesurer sa vitesse. Une position où le joueur au trait
+ * est bloqué (partie terminée) n'a pas de feuille en dessous d'elle.
+ */
+public class Perft {
+    /**
+     * Nombres de feuilles connus depuis la position de départ, bleu au trait, indexés
+     * par la profondeur. Ils ont été obtenus avec les règles d'origine de StuckWin
+     * (possibleDests et deplace sur le tableau state) et servent de référence.
+     */
+    static final long[] ATTENDU = {1, 13, 166, 2330, 31408, 449726, 6167512, 87789146};
+
+    private Perft() {
+    }
+
+    /**
+     * Nombre de feuilles à la profondeur donnée sous la position, qui est restaurée
+     *
+     * @param b       position, le joueur au trait est b.side
+     * @param depth   profondeur restante
+     * @param buffers un tampon de coups par niveau
+     * @return nombre de feuilles
+     */
+    static long perft(Board b, int depth, int[][] buffers) {
+        if (depth == 0) {
+            return 1;
+        }
+        if (depth == 1) {
+            return b.mobilite[b.side];
+        }
+        int[] moves = buffers[depth];
+        int n = b.generateMoves(b.side, moves);
+        long total = 0;
+        for (int i = 0; i < n; i++) {
+            int undo = b.makeMove(b.side, moves[i]);
+            total += perft(b, depth - 1, buffers);
+            b.unmakeMove(undo);
+        }
+        return total;
+    }
+
+    /**
+     * Perft depuis la position, avec le détail par coup de la racine (divide),
+     * les coups de la racine étant répartis entre plusieurs fils.
+     *
+     * @param root      position de départ, non modifiée
+     * @param depth     profondeur (au moins 1)
+     * @param nbThreads nombre de fils
+     * @param divide    vrai pour afficher le nombre de feuilles de chaque coup de la racine
+     * @return nombre de feuilles
+     */
+    static long run(Board root, int depth, int nbThreads, boolean divide) {
+        int[] rootMoves = new int[Board.MAX_MOVES];
+        int n = root.generateMoves(root.side, rootMoves);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, nbThreads));
+        try {
+            List<Future<Long>> counts = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                int move = rootMoves[i];
+                counts.add(pool.submit(() -> {
+                    Board b = root.copy();
+                    b.makeMove(b.side, move);
+                    return perft(b, depth - 1, new int[depth][Board.MAX_MOVES]);
+                }));
+            }
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                long count = counts.get(i).get();
+                if (divide) {
+                    System.out.println(Board.NOTATION[Board.moveSrc(rootMoves[i])] + "->"
+                            + Board.NOTATION[Board.moveDest(rootMoves[i])] + " : " + count);
+                }
+                total += count;
+            }
+            return total;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Lance perft depuis la position de départ et affiche le détail, le total et le débit.
+     *
+     * @param depth     profondeur
+     * @param nbThreads nombre de fils
+     */
+    static void divide(int depth, int nbThreads) {
+        Board start = new StuckWin().board;
+        long begin = System.nanoTime();
+        long total = depth == 0 ? 1 : run(start, depth, nbThreads, true);
+        long elapsed = Math.max(1, System.nanoTime() - begin);
+        System.out.println("Feuilles : " + total + " en " + (elapsed / 1_000_000) + " ms ("
+                + (total * 1_000_000_000L / elapsed) + " noeuds/s, " + nbThreads + " fils)");
+        if (depth < ATTENDU.length && total != ATTENDU[depth]) {
+            System.out.println("E : " + ATTENDU[depth] + " feuilles attendues à la profondeur " + depth);
+        }
+    }
+
+    /**
+     * Compare perft depuis la position de départ aux valeurs de référence jusqu'à la profondeur donnée.
+     *
+     * @param maxDepth  profondeur maximale vérifiée
+     * @param nbThreads nombre de fils
+     * @return vrai si tous les comptes sont corrects
+     */
+    static boolean check(int maxDepth, int nbThreads) {
+        Board start = new StuckWin().board;
+        boolean ok = true;
+        for (int depth = 1; depth <= maxDepth && depth < ATTENDU.length; depth++) {
+            long total = run(start, depth, nbThreads, false);
+            boolean good = total == ATTENDU[depth];
+            ok &= good;
+            System.out.println("perft(" + depth + ") = " + total + (good ? " OK" : " attendu " + ATTENDU[depth]));
+        }
+        return ok;
+    }
+}
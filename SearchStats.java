@@ -0,0 +1,143 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+/**
+ * Statistiques d'une recherche alpha-bêta. Chaque fil de recherche incrémente
+ * ses propres compteurs, sans synchronisation ; le moteur les additionne à la fin
+ * de la recherche. Le détail par itération vient du fil principal.
+ */
+public class SearchStats {
+    long nodes;
+    // feuilles évaluées à l'horizon (le moteur n'a pas de recherche de quiescence)
+    long qnodes;
+    long ttProbes;
+    long ttHits;
+    long ttStores;
+    long ttCollisions;
+    long cutoffs;
+    long firstMoveCutoffs;
+    int depth;
+    int score;
+    int nbThreads = 1;
+    long elapsedNanos;
+    // pour chaque itération terminée du fil principal : nœuds et temps écoulé depuis le début
+    final long[] iterationNodes = new long[Engine.MAX_PLY];
+    final long[] iterationNanos = new long[Engine.MAX_PLY];
+    int iterations;
+
+    /**
+     * Remet les compteurs à zéro
+     */
+    void reset() {
+        nodes = 0;
+        qnodes = 0;
+        ttProbes = 0;
+        ttHits = 0;
+        ttStores = 0;
+        ttCollisions = 0;
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+        depth = 0;
+        score = 0;
+        elapsedNanos = 0;
+        iterations = 0;
+    }
+
+    /**
+     * Ajoute les compteurs d'un fil à ceux-ci
+     *
+     * @param other statistiques d'un fil
+     */
+    void add(SearchStats other) {
+        nodes += other.nodes;
+        qnodes += other.qnodes;
+        ttProbes += other.ttProbes;
+        ttHits += other.ttHits;
+        ttStores += other.ttStores;
+        ttCollisions += other.ttCollisions;
+        cutoffs += other.cutoffs;
+        firstMoveCutoffs += other.firstMoveCutoffs;
+    }
+
+    /**
+     * Note la fin d'une itération du fil principal
+     *
+     * @param startNanos début de la recherche au sens de System.nanoTime
+     */
+    void endIteration(long startNanos) {
+        if (iterations < iterationNodes.length) {
+            iterationNodes[iterations] = nodes;
+            iterationNanos[iterations] = System.nanoTime() - startNanos;
+            iterations++;
+        }
+    }
+
+    /**
+     * Reprend le détail par itération d'un fil
+     *
+     * @param main statistiques du fil principal
+     */
+    void copyIterations(SearchStats main) {
+        System.arraycopy(main.iterationNodes, 0, iterationNodes, 0, main.iterations);
+        System.arraycopy(main.iterationNanos, 0, iterationNanos, 0, main.iterations);
+        iterations = main.iterations;
+    }
+
+    /**
+     * @return nœuds par seconde
+     */
+    long nodesPerSecond() {
+        return elapsedNanos == 0 ? 0 : nodes * 1_000_000_000L / elapsedNanos;
+    }
+
+    /**
+     * @return part des consultations de la table qui ont trouvé la position, en pourcentage
+     */
+    double ttHitRate() {
+        return ttProbes == 0 ? 0 : 100.0 * ttHits / ttProbes;
+    }
+
+    /**
+     * @return part des coupures bêta obtenues par le premier coup essayé, en pourcentage
+     */
+    double firstMoveCutoffRate() {
+        return cutoffs == 0 ? 0 : 100.0 * firstMoveCutoffs / cutoffs;
+    }
+
+    /**
+     * Facteur de branchement effectif : rapport des nœuds des deux dernières itérations
+     * terminées du fil principal, 0 s'il y en a moins de deux
+     *
+     * @return facteur de branchement effectif
+     */
+    double ebf() {
+        if (iterations < 2) {
+            return 0;
+        }
+        long last = iterationNodes[iterations - 1] - iterationNodes[iterations - 2];
+        long previous = iterationNodes[iterations - 2] - (iterations > 2 ? iterationNodes[iterations - 3] : 0);
+        return previous == 0 ? 0 : (double) last / previous;
+    }
+
+    /**
+     * @return statistiques sur une ligne
+     */
+    @Override
+    public String toString() {
+        StringBuilder times = new StringBuilder();
+        for (int i = 0; i < iterations; i++) {
+            times.append(i == 0 ? "" : ",").append(iterationNanos[i] / 1_000_000);
+        }
+        return "profondeur " + depth + ", score " + score + ", " + nodes + " noeuds (" + qnodes + " feuilles) en "
+                + (elapsedNanos / 1_000_000) + " ms, " + nodesPerSecond() + " noeuds/s, " + nbThreads + " fils, TT "
+                + ttProbes + " sondages " + String.format("%.0f%%", ttHitRate()) + " succès " + ttStores
+                + " écritures " + ttCollisions + " collisions, coupures au 1er coup "
+                + String.format("%.0f%%", firstMoveCutoffRate()) + ", EBF " + String.format("%.2f", ebf())
+                + ", itérations (ms) " + times;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+/**
+ * Moteur capable de choisir un coup pour StuckWin.jouerIA
+ */
+public interface Searcher {
+
+    /**
+     * Cherche le meilleur coup de la couleur dans la position donnée, qui n'est pas modifiée.
+     *
+     * @param root   position à analyser
+     * @param color  Board.BLEU ou Board.ROUGE
+     * @param timeMs budget de temps en millisecondes
+     * @return coup codé par Board.move, -1 si la couleur ne peut pas jouer
+     */
+    int search(Board root, int color, long timeMs);
+
+    /**
+     * @return résumé d'une ligne de la dernière recherche
+     */
+    String report();
+
+    /**
+     * @return statistiques détaillées de la dernière recherche, null si le moteur n'en tient pas
+     */
+    default SearchStats stats() {
+        return null;
+    }
+
+    /**
+     * Libère les fils que le moteur garde entre deux recherches
+     */
+    default void close() {
+    }
+}
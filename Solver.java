@@ -0,0 +1,428 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Résolution exacte d'une position de StuckWin (gain ou perte du joueur au trait)
+ * par recherche en profondeur parallèle. Les coups n'allant que vers l'avant, le
+ * graphe des positions est sans cycle et chaque position résolue l'est définitivement :
+ * les résultats sont rangés dans une table partagée, sans verrou, qui tient lieu
+ * d'état de la résolution et qui est sauvegardée régulièrement sur disque.
+ *
+ * Chaque fil examine les coups des deux premiers niveaux dans un ordre décalé selon
+ * son numéro, si bien que les fils travaillent sur des sous-arbres différents tout en
+ * profitant des résultats des autres.
+ *
+ * Entrée de la table : bits 8 à 63 de la clé de Zobrist, log2 de la taille du
+ * sous-arbre sur les bits 1 à 7 (critère de remplacement), résultat sur le bit 0.
+ */
+public class Solver {
+    static final String FICHIER_DEFAUT = "StuckWin.solve";
+    private static final int MAGIC = 0x53575356; // "SWSV"
+    private static final int VERSION = 1;
+    private static final int ENTREES_PAR_SEAU = 4;
+    // chaque coup augmente colonne - 2 * ligne (côté bleu) du pion joué, qui prend moins de
+    // 20 valeurs : une partie compte au plus 2 * 13 * 19 demi-coups
+    private static final int MAX_PLY = 2 * 13 * 19 + 1;
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // résultat d'un coup de la racine
+    static final int INCONNU = 0;
+    static final int GAGNANT = 1;
+    static final int PERDANT = 2;
+
+    final Board root;
+    final int nbThreads;
+    private final long[] table;
+    private final int mask;
+    final int[] rootMoves = new int[Board.MAX_MOVES];
+    final int nbRootMoves;
+    // pour chaque coup de la racine : INCONNU, GAGNANT ou PERDANT pour le joueur qui le joue
+    final AtomicIntegerArray rootResults;
+
+    private volatile boolean stop;
+    // vrai quand l'arrêt vient du crochet d'arrêt de la JVM (Ctrl-C), qui sauvegarde lui-même
+    private volatile boolean interrompu;
+    // -1 tant que la racine n'est pas résolue, sinon 1 si le joueur au trait gagne
+    private volatile int result = -1;
+    private long nodesBefore;
+    private Worker[] workers = new Worker[0];
+
+    /**
+     * @param root      position à résoudre, non modifiée
+     * @param nbThreads nombre de fils
+     * @param tailleMo  taille de la table en mégaoctets (arrondie à la puissance de deux inférieure)
+     */
+    Solver(Board root, int nbThreads, int tailleMo) {
+        this.root = root.copy();
+        this.nbThreads = Math.max(1, nbThreads);
+        long nbEntrees = Long.highestOneBit(Math.max(ENTREES_PAR_SEAU, (long) tailleMo * 1024 * 1024 / 8));
+        this.table = new long[(int) Math.min(nbEntrees, 1L << 30)];
+        this.mask = this.table.length - ENTREES_PAR_SEAU;
+        this.nbRootMoves = this.root.generateMoves(this.root.side, this.rootMoves);
+        this.rootResults = new AtomicIntegerArray(this.nbRootMoves);
+    }
+
+    /**
+     * Résout la position, en reprenant la sauvegarde si elle correspond à la même
+     * position et à la même taille de table. Affiche l'avancement à intervalle régulier
+     * et sauvegarde la table dans le fichier, ainsi qu'à l'arrêt du programme.
+     *
+     * @param checkpoint    fichier de sauvegarde, null pour ne pas sauvegarder
+     * @param saveSeconds   secondes entre deux sauvegardes
+     * @param reportSeconds secondes entre deux affichages de l'avancement
+     * @param maxSeconds    durée maximale de la résolution, 0 pour aucune limite
+     * @return 1 si le joueur au trait gagne, 0 s'il perd, -1 si la durée maximale est atteinte
+     */
+    int solve(File checkpoint, long saveSeconds, long reportSeconds, long maxSeconds) {
+        if (checkpoint != null && checkpoint.exists()) {
+            try {
+                if (load(checkpoint)) {
+                    System.out.println("Reprise de " + checkpoint + " : " + nodesBefore + " noeuds, "
+                            + rootSummary());
+                }
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        }
+        if (root.mobilite[root.side] == 0) {
+            return 1;
+        }
+        Thread hook = new Thread(() -> {
+            interrompu = true;
+            stop = true;
+            join();
+            save(checkpoint);
+        });
+        Runtime.getRuntime().addShutdownHook(hook);
+        long start = System.nanoTime();
+        workers = new Worker[nbThreads];
+        Thread[] threads = new Thread[nbThreads];
+        for (int id = 0; id < nbThreads; id++) {
+            workers[id] = new Worker(id);
+            threads[id] = new Thread(workers[id]::run, "StuckWin-solve-" + id);
+            threads[id].start();
+        }
+        long nextSave = start + saveSeconds * 1_000_000_000L;
+        long nextReport = start + reportSeconds * 1_000_000_000L;
+        long end = maxSeconds > 0 ? start + maxSeconds * 1_000_000_000L : Long.MAX_VALUE;
+        while (result < 0 && !stop) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long now = System.nanoTime();
+            if (now - nextReport >= 0) {
+                System.out.println(report((now - start) / 1_000_000));
+                nextReport = now + reportSeconds * 1_000_000_000L;
+            }
+            if (now - nextSave >= 0) {
+                save(checkpoint);
+                nextSave = now + saveSeconds * 1_000_000_000L;
+            }
+            if (now - end >= 0) {
+                break;
+            }
+        }
+        stop = true;
+        join();
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        if (!interrompu) {
+            save(checkpoint);
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // la JVM s'arrête déjà : le crochet fait la sauvegarde
+            }
+        }
+        System.out.println(report(elapsed));
+        return result;
+    }
+
+    private void join() {
+        for (Worker worker : workers) {
+            worker.done.acquireUninterruptibly();
+            worker.done.release();
+        }
+    }
+
+    /**
+     * @return nombre total de noeuds examinés, sauvegardes précédentes comprises
+     */
+    long nodes() {
+        long total = nodesBefore;
+        for (Worker worker : workers) {
+            total += worker.nodes;
+        }
+        return total;
+    }
+
+    /**
+     * Avancement sur une ligne : noeuds, débit, remplissage de la table et coups de la racine résolus
+     */
+    String report(long elapsedMs) {
+        long nodes = nodes() - nodesBefore;
+        long used = 0;
+        for (int i = 0; i < table.length; i += 64) {
+            used += (long) SLOT.getOpaque(table, i) != 0 ? 1 : 0;
+        }
+        return "Résolution : " + (result < 0 ? "en cours" : result == 1 ? "gain du joueur au trait" : "perte du joueur au trait")
+                + ", " + nodes() + " noeuds, " + (elapsedMs == 0 ? 0 : nodes * 1000 / elapsedMs) + " noeuds/s, table "
+                + (used * 64 * 100 / table.length) + "%, " + rootSummary();
+    }
+
+    private String rootSummary() {
+        int gagnants = 0;
+        int perdants = 0;
+        for (int i = 0; i < nbRootMoves; i++) {
+            gagnants += rootResults.get(i) == GAGNANT ? 1 : 0;
+            perdants += rootResults.get(i) == PERDANT ? 1 : 0;
+        }
+        return "racine " + (gagnants + perdants) + "/" + nbRootMoves + " coups résolus (" + gagnants + " gagnants)";
+    }
+
+    /**
+     * Cherche la position dans la table
+     *
+     * @return 1 si le joueur au trait gagne, 0 s'il perd, -1 si la position est absente
+     */
+    int probe(long key) {
+        int base = (int) key & mask;
+        for (int i = base; i < base + ENTREES_PAR_SEAU; i++) {
+            long entry = (long) SLOT.getOpaque(table, i);
+            if (entry != 0 && ((entry ^ key) >>> 8) == 0) {
+                return (int) (entry & 1);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Enregistre le résultat d'une position, en remplaçant au besoin l'entrée du seau
+     * dont le sous-arbre était le plus petit.
+     */
+    void store(long key, boolean gagne, long subtree) {
+        int base = (int) key & mask;
+        int victim = base;
+        int victimWork = Integer.MAX_VALUE;
+        for (int i = base; i < base + ENTREES_PAR_SEAU; i++) {
+            long entry = (long) SLOT.getOpaque(table, i);
+            if (entry == 0) {
+                victim = i;
+                break;
+            }
+            int work = (int) (entry >>> 1 & 0x7F);
+            if (work < victimWork) {
+                victim = i;
+                victimWork = work;
+            }
+        }
+        int work = 63 - Long.numberOfLeadingZeros(Math.max(1, subtree));
+        SLOT.setOpaque(table, victim, (key & ~0xFFL) | (long) work << 1 | (gagne ? 1 : 0));
+    }
+
+    /**
+     * Sauvegarde la table et les résultats de la racine dans un fichier temporaire
+     * renommé ensuite, pour qu'une interruption pendant l'écriture ne perde pas la sauvegarde précédente.
+     * Les fils peuvent continuer à écrire : chaque entrée se vérifie seule.
+     */
+    synchronized void save(File checkpoint) {
+        if (checkpoint == null) {
+            return;
+        }
+        File tmp = new File(checkpoint.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(root.hash).putInt(table.length)
+                    .putLong(nodes()).putInt(result).putInt(nbRootMoves);
+            for (int i = 0; i < nbRootMoves; i++) {
+                buffer.putInt(rootMoves[i]).putInt(rootResults.get(i));
+            }
+            for (int i = 0; i < table.length; i++) {
+                if (buffer.remaining() < Long.BYTES) {
+                    buffer.flip();
+                    channel.write(buffer);
+                    buffer.clear();
+                }
+                buffer.putLong((long) SLOT.getOpaque(table, i));
+            }
+            buffer.flip();
+            channel.write(buffer);
+        } catch (IOException e) {
+            System.out.println(e);
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Recharge une sauvegarde de la même position et de la même taille de table
+     *
+     * @return vrai si la sauvegarde a été reprise
+     */
+    boolean load(File checkpoint) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(checkpoint, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 20);
+            channel.read(buffer);
+            buffer.flip();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != root.hash
+                    || buffer.getInt() != table.length) {
+                System.out.println(checkpoint + " ne correspond pas à cette position ou à cette taille de table, ignoré");
+                return false;
+            }
+            nodesBefore = buffer.getLong();
+            result = buffer.getInt();
+            int n = buffer.getInt();
+            for (int i = 0; i < n; i++) {
+                int move = buffer.getInt();
+                int status = buffer.getInt();
+                for (int j = 0; j < nbRootMoves; j++) {
+                    if (rootMoves[j] == move) {
+                        rootResults.set(j, status);
+                    }
+                }
+            }
+            for (int i = 0; i < table.length; i++) {
+                if (buffer.remaining() < Long.BYTES) {
+                    buffer.compact();
+                    if (channel.read(buffer) < 0) {
+                        throw new IOException(checkpoint + " est tronqué");
+                    }
+                    buffer.flip();
+                }
+                table[i] = buffer.getLong();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Fil de résolution : résout les coups de la racine en commençant par le sien
+     */
+    final class Worker {
+        final int id;
+        final Board board;
+        final int[][] moves = new int[MAX_PLY][Board.MAX_MOVES];
+        final int[][] scores = new int[MAX_PLY][Board.MAX_MOVES];
+        final Semaphore done = new Semaphore(0);
+        volatile long nodes;
+        private long localNodes;
+
+        Worker(int id) {
+            this.id = id;
+            this.board = root.copy();
+        }
+
+        void run() {
+            try {
+                for (int k = 0; k < nbRootMoves && result < 0 && !stop; k++) {
+                    int i = (k + id) % nbRootMoves;
+                    if (rootResults.get(i) != INCONNU) {
+                        continue;
+                    }
+                    int undo = board.makeMove(board.side, rootMoves[i]);
+                    boolean adversaireGagne = solve(1);
+                    board.unmakeMove(undo);
+                    if (stop) {
+                        break;
+                    }
+                    rootResults.set(i, adversaireGagne ? PERDANT : GAGNANT);
+                    if (!adversaireGagne) {
+                        result = 1;
+                    }
+                }
+                boolean toutPerdant = true;
+                for (int i = 0; i < nbRootMoves; i++) {
+                    toutPerdant &= rootResults.get(i) == PERDANT;
+                }
+                if (toutPerdant) {
+                    result = 0;
+                }
+            } finally {
+                nodes = localNodes;
+                done.release();
+            }
+        }
+
+        /**
+         * @param ply distance à la racine
+         * @return vrai si le joueur au trait gagne
+         */
+        boolean solve(int ply) {
+            if ((++localNodes & 4095) == 0) {
+                nodes = localNodes;
+            }
+            int side = board.side;
+            if (board.mobilite[side] == 0) {
+                return true;
+            }
+            long key = board.hash;
+            int known = probe(key);
+            if (known >= 0) {
+                return known == 1;
+            }
+            long start = localNodes;
+            int[] buffer = moves[ply];
+            int[] score = scores[ply];
+            int n = board.generateMoves(side, buffer);
+            // coups menant à une perte connue de l'adversaire, puis tri selon l'évaluation du moteur
+            for (int i = 0; i < n; i++) {
+                int undo = board.makeMove(side, buffer[i]);
+                if (probe(board.hash) == 0) {
+                    board.unmakeMove(undo);
+                    store(key, true, 1);
+                    return true;
+                }
+                score[i] = board.mobilite[side ^ 1] - board.mobilite[side];
+                board.unmakeMove(undo);
+            }
+            // au premier niveau, chaque fil commence par un coup différent
+            if (ply == 1 && id > 0) {
+                score[id % n] = Integer.MAX_VALUE;
+            }
+            boolean gagne = false;
+            for (int k = 0; k < n && !gagne && !stop; k++) {
+                int best = k;
+                for (int j = k + 1; j < n; j++) {
+                    if (score[j] > score[best]) {
+                        best = j;
+                    }
+                }
+                int move = buffer[best];
+                buffer[best] = buffer[k];
+                buffer[k] = move;
+                score[best] = score[k];
+                int undo = board.makeMove(side, move);
+                gagne = !solve(ply + 1);
+                board.unmakeMove(undo);
+            }
+            if (!stop) {
+                store(key, gagne, localNodes - start);
+            }
+            return gagne;
+        }
+    }
+}
@@ -8,12 +8,14 @@
 
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.time.format.DateTimeFormatter;
 import java.util.Scanner;
 import java.util.Arrays;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.time.LocalDateTime;
@@ -26,6 +28,16 @@ public class StuckWin {
     static final int DEFAULT_SPACE_NUMBER = 5;
 
     File curCsvFile;
+    // trace de la partie en cours, ouverte par initCsvFile et fermée en fin de partie
+    TraceWriter trace;
+    // politique d'écriture de la trace et nombre de coups entre deux écritures pour TOUS_LES_N
+    TraceWriter.Flush politiqueTrace = TraceWriter.Flush.CHAQUE_COUP;
+    int flushTous = 16;
+    // les coups passent par un fil d'écriture pour que le jeu n'attende pas le disque
+    boolean traceAsynchrone = true;
+    // affiche les compteurs du fil d'écriture en fin de partie (option --stats-trace)
+    boolean statsTrace = false;
+    AsyncTraceWriter traceAsync;
     int displayMode = 2;
 
     enum Result {OK, BAD_COLOR, DEST_NOT_FREE, EMPTY_SRC, TOO_FAR, EXT_BOARD, EXIT}
@@ -45,6 +57,22 @@ public class StuckWin {
             {'-', 'B', 'B', 'B', 'B', '.', '-', '-'},
             {'-', 'B', 'B', 'B', 'B', '-', '-', '-'},
     };
+    // modèle de référence du plateau, state n'en est qu'une vue
+    final Board board = Board.fromState(state);
+
+    // type de joueur par couleur (indice Board) : 'H' humain, 'I' IA alpha-bêta, 'M' IA Monte-Carlo
+    final char[] typesJoueurs = {'H', 'H'};
+    // temps de réflexion de l'IA par couleur, en millisecondes
+    final long[] tempsIA = {1000, 1000};
+    // moteur de chaque couleur jouée par l'IA, créé par setJoueur ou au premier coup
+    final Searcher[] moteurs = new Searcher[2];
+    // résumé de la dernière décision de l'IA (livre d'ouvertures ou rapport du moteur)
+    String rapportIA = "";
+    // statistiques de la dernière recherche de l'IA, null après un coup du livre ou du moteur Monte-Carlo
+    SearchStats statsIA;
+    // recherche de l'IA pendant le tour de l'humain et moteur utilisé, null si aucune
+    private Thread reflexion;
+    private Engine moteurReflexion;
 
     /**
      * Déplace un pion ou simule son déplacement
@@ -58,17 +86,21 @@ public class StuckWin {
         if(lcDest.equals("q")) {
             return Result.EXIT;
         }
-        Result result = Result.TOO_FAR;
-        if(isOutOfBound(lcSource) || isOutOfBound(lcDest)) {
-            result = Result.EXT_BOARD;
-        }
-        int rowSrc = charToInt(lcSource.charAt(0));
-        int colSrc = Character.getNumericValue(lcSource.charAt(1));
-        int rowDest = charToInt(lcDest.charAt(0));
-        int colDest = Character.getNumericValue(lcDest.charAt(1));
-        char charSrc = this.state[rowSrc][colSrc];
-        char charDest = this.state[rowDest][colDest];
-        String[] possibleDest = possibleDests(couleur, rowSrc, colSrc);
+        return deplace(couleur, lcToIndex(lcSource), lcToIndex(lcDest), mode);
+    }
+
+    /**
+     * Déplace un pion ou simule son déplacement, cases données par leur indice dans Board
+     * @param couleur couleur du pion à déplacer
+     * @param src case source (-1 si hors des limites)
+     * @param dest case destination (-1 si hors des limites)
+     * @param mode ModeMVT.REAL/SIMU selon qu'on réalise effectivement le déplacement ou qu'on le simule seulement.
+     * @return enum {OK, BAD_COLOR, DEST_NOT_FREE, EMPTY_SRC, TOO_FAR, EXT_BOARD} selon le déplacement
+     */
+    Result deplace(char couleur, int src, int dest, ModeMvt mode) {
+        char charSrc = src < 0 ? '-' : this.board.get(src);
+        char charDest = dest < 0 ? '-' : this.board.get(dest);
+        Result result;
         if(charSrc == '-' || charDest == '-') {
             result = Result.EXT_BOARD;
         }else if(charDest != VIDE) {
@@ -77,16 +109,14 @@ public class StuckWin {
             result = Result.EMPTY_SRC;
         }else if(charSrc != couleur) {
             result = Result.BAD_COLOR;
+        }else if(this.board.isLegal(Board.colorIndex(couleur), src, dest)) {
+            result = Result.OK;
+        }else {
+            result = Result.TOO_FAR;
         }
-        for(int i = 0; i < possibleDest.length; i++) {
-            if(possibleDest[i].equals(lcDest)) {
-                result = Result.OK;
-                break;
-            }
-        }
-        if(result == Result.OK) {
-            this.state[rowDest][colDest] = charSrc;
-            this.state[rowSrc][colSrc] = VIDE;
+        if(result == Result.OK && mode == ModeMvt.REAL) {
+            this.board.makeMove(Board.colorIndex(couleur), Board.move(src, dest));
+            this.board.toState(this.state);
         }
         return result;
     }
@@ -105,6 +135,63 @@ public class StuckWin {
         return isIPositionOut || isJPositionOut;
     }
 
+    /**
+     * Convertit une case au format Lc (ex: D6) en indice de case du plateau
+     * @param lc case au format Lc
+     * @return indice de la case dans Board, -1 si la case est hors des limites
+     */
+    int lcToIndex(String lc) {
+        if (lc.length() != 2 || isOutOfBound(lc)) {
+            return -1;
+        }
+        return Board.index(charToInt(lc.charAt(0)), Character.getNumericValue(lc.charAt(1)));
+    }
+
+    /**
+     * Convertit un coup de Board en tableau {source, destination} au format Lc
+     * @param move coup codé par Board.move
+     * @return tableau de deux chaînes {source, destination}
+     */
+    String[] moveToLc(int move) {
+        return new String[]{Board.NOTATION[Board.moveSrc(move)], Board.NOTATION[Board.moveDest(move)]};
+    }
+
+    /**
+     * Joue un coup légal sur le plateau sans mettre à jour state, pour l'exploration.
+     * @param couleur couleur du joueur
+     * @param move coup codé par Board.move
+     * @return jeton d'annulation à passer à unmakeMove
+     */
+    int makeMove(char couleur, int move) {
+        return this.board.makeMove(Board.colorIndex(couleur), move);
+    }
+
+    /**
+     * Annule en temps constant un coup joué par makeMove
+     * @param undo jeton renvoyé par makeMove
+     */
+    void unmakeMove(int undo) {
+        this.board.unmakeMove(undo);
+    }
+
+    /**
+     * Clé de Zobrist 64 bits de la position courante (pions et trait)
+     * @return clé de la position
+     */
+    long getHash() {
+        return this.board.hash;
+    }
+
+    /**
+     * Écrit les coups légaux de la couleur dans le tampon fourni, sans allocation
+     * @param couleur couleur du joueur
+     * @param moves tampon d'au moins Board.MAX_MOVES coups
+     * @return nombre de coups écrits
+     */
+    int coupsPossibles(char couleur, int[] moves) {
+        return this.board.generateMoves(Board.colorIndex(couleur), moves);
+    }
+
     /**
      * Convertit un caractère en nombre (ex: A -> 0 et B -> 1)
      * @param character le caractère à convertir
@@ -133,21 +220,30 @@ public class StuckWin {
      */
     String[] possibleDests(char couleur, int idLettre, int idCol){
         String[] result = new String[]{"", "", ""};
-        if(this.state[idLettre][idCol] != couleur) {
-            return result;
-        }
-        int orientation = (couleur == 'B' ? (-1) : 1);
+        int color = Board.colorIndex(couleur);
+        int dests = possibleDestsMask(couleur, idLettre, idCol);
         for(int i = 0; i < 3; i++) {
-            int x = idCol + orientation * (int) Math.round(Math.cos(2 * Math.PI * i / 8.0 + (Math.PI / 2)));
-            int y = idLettre + orientation * (int) Math.round(Math.sin(2 * Math.PI * i / 8.0 + (Math.PI / 2)));
-            if (x >= 0 && y >= 0 && x < (BOARD_SIZE + 1) && y < BOARD_SIZE && this.state[y][x] == VIDE) {
-                result[i] = "" + intToChar(y) + x;
+            if((dests & (1 << i)) != 0) {
+                result[i] = Board.NOTATION[Board.FORWARD[color][Board.index(idLettre, idCol) * 3 + i]];
             }
         }
 
         return result;
     }
 
+    /**
+     * Variante de possibleDests sans allocation : le bit i du résultat est levé
+     * si la i-ème position de possibleDests est jouable.
+     * @param couleur couleur du pion à jouer
+     * @param idLettre id de la ligne du pion à jouer
+     * @param idCol id de la colonne du pion à jouer
+     * @return masque de trois bits des destinations jouables
+     */
+    int possibleDestsMask(char couleur, int idLettre, int idCol) {
+        int color = Board.colorIndex(couleur);
+        return color < 0 ? 0 : this.board.destinations(color, Board.index(idLettre, idCol));
+    }
+
     /**
      * Affiche le plateau de jeu dans la configuration portée par
      * l'attribut d'état "state" dans la console
@@ -331,8 +427,166 @@ public class StuckWin {
      * @return tableau contenant la position de départ et la destination du pion à jouer.
      */
     String[] jouerIA(char couleur) {
-        // votre code ici. Supprimer la ligne ci-dessous.
-        throw new java.lang.UnsupportedOperationException("à compléter");
+        String[] reponse = moveToLc(choisirCoup(couleur));
+        System.out.println("IA " + couleur + " : " + reponse[0] + "->" + reponse[1] + " / " + this.rapportIA);
+        return reponse;
+    }
+
+    /**
+     * Choisit le coup de l'IA : coup du livre d'ouvertures s'il y en a un, puis coup
+     * gagnant de la table de finales si elle donne la position gagnée, sinon
+     * résultat de la recherche du moteur de la couleur. Le résumé de la décision
+     * est rangé dans rapportIA.
+     *
+     * @param couleur couleur du joueur
+     * @return coup codé par Board.move
+     */
+    int choisirCoup(char couleur) {
+        int color = Board.colorIndex(couleur);
+        Book book = Book.defaut();
+        int entree = book == null ? -1 : book.lookup(this.board, color);
+        if (entree >= 0) {
+            this.rapportIA = "Livre : " + book.counts[entree] + " parties, "
+                    + (book.wins[entree] * 100 / book.counts[entree]) + "% gagnées";
+            this.statsIA = null;
+            return book.moves[entree];
+        }
+        if (issueTheorique(couleur) == couleur) {
+            char adversaire = couleur == 'B' ? 'R' : 'B';
+            int[] coups = new int[Board.MAX_MOVES];
+            int n = this.board.generateMoves(color, coups);
+            for (int i = 0; i < n; i++) {
+                int undo = makeMove(couleur, coups[i]);
+                char issue = issueTheorique(adversaire);
+                unmakeMove(undo);
+                if (issue == couleur) {
+                    this.rapportIA = "Table de finales : gain assuré";
+                    this.statsIA = null;
+                    return coups[i];
+                }
+            }
+        }
+        if (this.moteurs[color] == null) {
+            this.moteurs[color] = this.typesJoueurs[color] == 'M' ? new Mcts() : new Engine();
+        }
+        Searcher moteur = this.moteurs[color];
+        int move = moteur.search(this.board, color, this.tempsIA[color]);
+        if (move < 0) {
+            throw new IllegalStateException("Aucun coup jouable pour " + couleur);
+        }
+        this.rapportIA = moteur.report();
+        this.statsIA = moteur.stats();
+        return move;
+    }
+
+    /**
+     * Fait jouer la couleur selon son type de joueur (humain ou IA)
+     *
+     * @param couleur couleur du joueur
+     * @return tableau de deux chaînes {source,destination} du pion à jouer
+     */
+    String[] jouerTour(char couleur) {
+        if (this.typesJoueurs[Board.colorIndex(couleur)] != 'H') {
+            return jouerIA(couleur);
+        }
+        startPondering(couleur);
+        try {
+            return jouer(couleur);
+        } finally {
+            stopPondering();
+        }
+    }
+
+    /**
+     * Fait réfléchir l'IA alpha-bêta adverse pendant que l'humain choisit son coup.
+     * La recherche porte sur la position de l'humain : quel que soit le coup joué,
+     * la position suivante est un de ses nœuds de profondeur 1, et la recherche de
+     * l'IA y retrouve les résultats de la table de transposition partagée. Aucun
+     * coup n'est deviné, il n'y a donc pas de mauvaise prédiction à rattraper.
+     *
+     * @param couleurHumain couleur du joueur humain au trait
+     */
+    void startPondering(char couleurHumain) {
+        int adversaire = Board.colorIndex(couleurHumain) ^ 1;
+        if (this.typesJoueurs[adversaire] != 'I' || this.board.mobilite[adversaire ^ 1] == 0) {
+            return;
+        }
+        if (this.moteurs[adversaire] == null) {
+            this.moteurs[adversaire] = new Engine();
+        }
+        Engine engine = (Engine) this.moteurs[adversaire];
+        Board position = this.board.copy();
+        this.moteurReflexion = engine;
+        this.reflexion = new Thread(() -> engine.search(position, adversaire ^ 1, 86_400_000L), "StuckWin-ponder");
+        this.reflexion.setDaemon(true);
+        this.reflexion.start();
+    }
+
+    /**
+     * Interrompt la réflexion en cours et attend sa fin, avant que le coup de l'humain
+     * ne modifie le plateau.
+     */
+    void stopPondering() {
+        if (this.reflexion == null) {
+            return;
+        }
+        // search remet stop à faux en démarrant : on insiste jusqu'à la fin du fil
+        while (this.reflexion.isAlive()) {
+            this.moteurReflexion.stop = true;
+            try {
+                this.reflexion.join(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        this.reflexion = null;
+        this.moteurReflexion = null;
+    }
+
+    /**
+     * Choisit le type de joueur d'une couleur : "h" pour un humain, "ia[:ms[:mo[:fils[:det[:prof]]]]]"
+     * pour l'IA alpha-bêta avec un temps de réflexion en millisecondes, une
+     * table de transposition de mo mégaoctets, un nombre de fils de recherche et,
+     * avec "det", une recherche reproductible à la profondeur prof (Engine.PROFONDEUR_DETERMINISTE
+     * par défaut) sans limite de temps ; "mcts[:ms[:fils]]" pour l'IA Monte-Carlo.
+     *
+     * @param couleur couleur du joueur
+     * @param spec type de joueur
+     */
+    void setJoueur(char couleur, String spec) {
+        int color = Board.colorIndex(couleur);
+        String[] parts = spec.toLowerCase().split(":");
+        switch (parts[0]) {
+            case "h":
+                this.typesJoueurs[color] = 'H';
+                break;
+            case "ia":
+                this.typesJoueurs[color] = 'I';
+                break;
+            case "mcts":
+                this.typesJoueurs[color] = 'M';
+                break;
+            default:
+                System.out.println("Type de joueur inconnu : " + spec + " (h, ia[:ms[:mo[:fils[:det[:prof]]]]], mcts[:ms[:fils]])");
+                return;
+        }
+        if (parts.length > 1) {
+            this.tempsIA[color] = Long.parseLong(parts[1]);
+        }
+        if (this.typesJoueurs[color] == 'I') {
+            int ttMo = parts.length > 2 ? Integer.parseInt(parts[2]) : Engine.TT_MO_DEFAUT;
+            int nbThreads = parts.length > 3 ? Integer.parseInt(parts[3]) : 1;
+            Engine engine = new Engine(ttMo, nbThreads);
+            if (parts.length > 4 && parts[4].equals("det")) {
+                engine.deterministe = true;
+                engine.maxDepth = parts.length > 5 ? Integer.parseInt(parts[5]) : Engine.PROFONDEUR_DETERMINISTE;
+            }
+            this.moteurs[color] = engine;
+        } else if (this.typesJoueurs[color] == 'M') {
+            int nbThreads = parts.length > 2 ? Integer.parseInt(parts[2]) : 1;
+            this.moteurs[color] = new Mcts(nbThreads, Mcts.NOEUDS_DEFAUT);
+        }
     }
 
     /**
@@ -415,16 +669,26 @@ public class StuckWin {
      * @return
      */
     char finPartie(char couleur){
-        int nbPossibleMvtTotal = 0;
-        for(int i = 0; i  < this.state.length; i++) {
-            for (int j = 0; j < this.state[i].length; j++) {
-                if(this.state[i][j] == couleur) {
-                    nbPossibleMvtTotal += nbPossibleMvt(couleur, i, j);
-                }
-            }
-        }
+        return (this.board.mobilite[Board.colorIndex(couleur)] != 0 ? 'N' : couleur);
+    }
 
-        return (nbPossibleMvtTotal == 0 ? couleur : 'N');
+    /**
+     * Retourne le vainqueur en cas de jeu parfait d'après la table de finales,
+     * 'N' si aucune table n'est chargée ou si la position n'y figure pas.
+     *
+     * @param couleur Couleur du joueur au trait
+     * @return 'R', 'B' ou 'N'
+     */
+    char issueTheorique(char couleur) {
+        Tablebase tablebase = Tablebase.defaut();
+        if (tablebase == null) {
+            return 'N';
+        }
+        int issue = tablebase.probe(this.board, Board.colorIndex(couleur));
+        if (issue < 0) {
+            return 'N';
+        }
+        return issue == 1 ? couleur : (couleur == 'B' ? 'R' : 'B');
     }
 
     /**
@@ -436,15 +700,7 @@ public class StuckWin {
      * @return Nombre de mouvements possibles (int)
      */
     int nbPossibleMvt(char color, int idRow, int idCol) {
-        int nbPossibleMvt = 0;
-        String[] possibleDests;
-
-        possibleDests = possibleDests(color, idRow, idCol);
-        for (int k = 0; k < possibleDests.length; k++) {
-            nbPossibleMvt += possibleDests[k].equals("") ? 0 : 1;
-        }
-
-        return nbPossibleMvt;
+        return Integer.bitCount(possibleDestsMask(color, idRow, idCol));
     }
 
     /**
@@ -466,7 +722,7 @@ public class StuckWin {
         do {
             jeu.affiche();
             do {
-                reponse = jeu.jouer(curCouleur);
+                reponse = jeu.jouerTour(curCouleur);
                 src = reponse[0];
                 dest = reponse[1];
                 if ("q".equals(src))
@@ -509,7 +765,7 @@ public class StuckWin {
                 jeu.affiche2();
                 jeu.drawLabelInformation("Au tour de : " + (curCouleur == 'B' ? "Bleu" : "Rouge"));
                 StdDraw.show();
-                reponse = jeu.jouer(curCouleur);
+                reponse = jeu.jouerTour(curCouleur);
                 src = reponse[0];
                 dest = reponse[1];
                 status = jeu.deplace(curCouleur, src, dest, ModeMvt.REAL);
@@ -540,10 +796,35 @@ public class StuckWin {
      */
     void runGame(StuckWin jeu, int displayMode) {
         this.displayMode = displayMode;
-        if (displayMode == 1) {
-            gameTerminal(jeu);
-        } else {
-            gameGUI(jeu);
+        try {
+            if (displayMode == 1) {
+                gameTerminal(jeu);
+            } else {
+                gameGUI(jeu);
+            }
+        } finally {
+            if (this.traceAsync != null) {
+                this.traceAsync.close();
+                if (this.statsTrace) {
+                    System.out.println(this.traceAsync);
+                }
+                this.traceAsync = null;
+            }
+            if (this.trace != null) {
+                this.trace.close();
+                this.trace = null;
+            }
+        }
+    }
+
+    /**
+     * Lit les types des joueurs bleu et rouge dans les arguments de la ligne de commande.
+     *
+     * @param args arguments du programme : [gameMode] [joueurBleu] [joueurRouge]
+     */
+    void initJoueurs(String[] args) {
+        for (int i = 1; i < args.length && i <= this.joueurs.length; i++) {
+            setJoueur(this.joueurs[i - 1], args[i]);
         }
     }
 
@@ -553,31 +834,13 @@ public class StuckWin {
      * @param displayMode Mode de jeu (1: console, 2: graphique)
      */
     void initCsvFile(int displayMode) {
-        //get all files in the current directory
-        File[] files = new File(".").listFiles();
-        //filter the files to only get the csv files
-        File[] csvFiles = Arrays.stream(files).filter(f -> f.getName().endsWith(".csv")).toArray(File[]::new);
-        int maxNum = 0;
-        // match the file name with the pattern to get higher number
-        for (File f : csvFiles) {
-            Matcher m = Pattern.compile("StuckWin_(\\d+)\\.csv").matcher(f.getName());
-            if (m.matches()) {
-                maxNum = Math.max(maxNum, Integer.parseInt(m.group(1)));
-            }
-        }
-        String filename;
-
-        if (maxNum > 8) {
-            filename = ("StuckWin_" + (maxNum + 1) + ".csv");
-        } else {
-            filename = ("StuckWin_0" + (maxNum + 1) + ".csv");
-        }
+        String filename = nomTrace(dernierNumeroTrace(new File(".")) + 1);
 
         this.curCsvFile = new File(filename);
         System.out.println("Le jeu est lancé ! Vous trouverez la trace de cette partie dans le fichier " + filename);
 
 
-        try (FileWriter curCsvFileEditor = new FileWriter(this.curCsvFile, true)) {
+        try {
             String gameTypeStr = "";
             switch (displayMode) {
                 case 1:
@@ -589,17 +852,93 @@ public class StuckWin {
                 default:
                     break;
             }
-            curCsvFileEditor.append("# StuckWin Game\n");
-            curCsvFileEditor.append("# Nathan BOSCHI, Jessy MOUGAMMADALY / Groupe 29\n");
-            curCsvFileEditor.append("# Game played with " + gameTypeStr + " interface (" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")) + ")\n");
-            curCsvFileEditor.append("color,start,dest,result\n");
+            this.trace = new TraceWriter(this.curCsvFile, this.politiqueTrace, this.flushTous);
+            this.trace.header(gameTypeStr);
+            if (this.traceAsynchrone) {
+                this.traceAsync = new AsyncTraceWriter(this.trace, AsyncTraceWriter.CAPACITE_DEFAUT,
+                        AsyncTraceWriter.Saturation.BLOQUER);
+            }
         } catch (Exception e) {
             System.out.println(e);
         }
     }
 
+    /**
+     * Cherche le plus grand numéro de trace StuckWin_XX.csv d'un répertoire.
+     *
+     * @param dir Répertoire des traces
+     * @return Plus grand numéro, 0 s'il n'y a aucune trace
+     */
+    static int dernierNumeroTrace(File dir) {
+        //get all files in the directory
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        //filter the files to only get the csv files
+        File[] csvFiles = Arrays.stream(files).filter(f -> f.getName().endsWith(".csv")).toArray(File[]::new);
+        int maxNum = 0;
+        // match the file name with the pattern to get higher number
+        for (File f : csvFiles) {
+            Matcher m = Pattern.compile("StuckWin_(\\d+)\\.csv").matcher(f.getName());
+            if (m.matches()) {
+                maxNum = Math.max(maxNum, Integer.parseInt(m.group(1)));
+            }
+        }
+        return maxNum;
+    }
+
+    /**
+     * Nom du fichier trace d'un numéro donné, sur deux chiffres au moins.
+     *
+     * @param numero Numéro de la trace
+     * @return Nom du fichier (StuckWin_XX.csv)
+     */
+    static String nomTrace(int numero) {
+        return numero > 9 ? "StuckWin_" + numero + ".csv" : "StuckWin_0" + numero + ".csv";
+    }
+
+    /**
+     * Entête d'un fichier trace : commentaires puis noms des colonnes.
+     *
+     * @param gameTypeStr Interface de jeu (Terminal, Graphical, ...)
+     * @return Lignes de l'entête
+     */
+    static String enteteCsv(String gameTypeStr) {
+        return enteteCsv(gameTypeStr, LocalDateTime.now());
+    }
+
+    /**
+     * Entête d'un fichier trace pour une partie commencée à une date donnée.
+     *
+     * @param gameTypeStr Interface de jeu (Terminal, Graphical, ...)
+     * @param date        Date de la partie
+     * @return Lignes de l'entête
+     */
+    static String enteteCsv(String gameTypeStr, LocalDateTime date) {
+        return "# StuckWin Game\n"
+                + "# Nathan BOSCHI, Jessy MOUGAMMADALY / Groupe 29\n"
+                + "# Game played with " + gameTypeStr + " interface (" + date.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")) + ")\n"
+                + "color,start,dest,result\n";
+    }
+
+    /**
+     * Ligne d'un fichier trace pour un coup.
+     *
+     * @param color  Couleur du joueur (char)
+     * @param start  Pièce source (String)
+     * @param dest   Pièce dest. (String)
+     * @param result Etat du mouvement
+     * @return Ligne terminée par un retour à la ligne
+     */
+    static String ligneCsv(char color, String start, String dest, Result result) {
+        return "" + color + "," + start + "," + dest + "," + result + "\n";
+    }
+
     /**
      * Ajoute une ligne au fichier trace (.csv) de la partie actuelle.
+     * La ligne passe par la trace ouverte si elle concerne ce fichier (et par son fil
+     * d'écriture s'il y en a un), sinon le fichier est ouvert le temps de l'écriture.
      *
      * @param file   Fichier à écrire
      * @param color  Couleur du joueur actuel (char)
@@ -608,71 +947,63 @@ public class StuckWin {
      * @param result Etat du mouvement
      */
     void csvFileAppend(File file, char color, String start, String dest, Result result) {
+        if (this.trace != null && this.trace.file.equals(file)) {
+            if (this.traceAsync != null) {
+                this.traceAsync.offer(color, start, dest, result);
+            } else {
+                this.trace.append(color, start, dest, result);
+            }
+            return;
+        }
         try (FileWriter curCsvFileEditor = new FileWriter(file, true)) {
-            curCsvFileEditor.append("" + color + "," + start + "," + dest + "," + result + "\n");
+            curCsvFileEditor.append(ligneCsv(color, start, dest, result));
         } catch (Exception e) {
             System.out.println(e);
         }
     }
 
-    /**
-     * Convertit un fichier en liste de tableaux.
-     * Chaque ligne se transforme en String[] et est ajoutée à la liste.
-     *
-     * @param file Fichier à convertir
-     * @return List of String []
-     */
-    List<String[]> csvToArray(File file) {
-        if (file.exists() && file.getName().startsWith("StuckWin")) {
-            try (Scanner fileScanner = new Scanner(file);) {
-                List<String[]> csvArray = new ArrayList<>();
-                while (fileScanner.hasNextLine()) {
-                    String line = fileScanner.nextLine();
-                    if (line.equals("color,start,dest,result") || line.startsWith("#"))
-                        continue;
-                    csvArray.add(line.split(","));
-                }
-                return csvArray;
-            } catch (Exception e) {
-                System.out.println(e);
-                return Collections.emptyList();
-            }
-        } else {
-            System.out.println("E : Le fichier entré en paramètre est inexistant ou n'est pas un fichier de trace StuckWin.");
-            return Collections.emptyList();
-        }
-    }
-
     /**
      * Joue un fichier trace dans l'interface graphique.
+     * La trace est lue en flux : chaque coup est affiché puis joué dès sa lecture.
      *
      * @param file Fichier trace à jouer (StuckWin_XX.csv)
      */
     void csvFilePlay(File file) {
+        if (!file.exists() || !file.getName().startsWith("StuckWin")) {
+            System.out.println("E : Le fichier entré en paramètre est inexistant ou n'est pas un fichier de trace StuckWin.");
+            return;
+        }
         StdDraw.enableDoubleBuffering();
         initWindow();
 
-        List<String[]> turnList = csvToArray(file);
-        int cpt = 0;
-        char partie = 'N';
-        Result status = Result.OK;
-
-        for (String[] turn : turnList) {
-            StdDraw.clear();
-            drawLabelInformation(statusStringGenerator(turn[1], turn[2], status, partie));
-            affiche2();
-            StdDraw.pause(1000);
-            StdDraw.show();
-            status = deplace(turn[0].charAt(0), turn[1], turn[2], ModeMvt.REAL);
-            if (status == Result.OK) {
-                cpt++;
-            }
+        // couleur du dernier coup, nombre de coups joués, statut du coup précédent
+        char[] dernier = {'N'};
+        int[] cpt = {0};
+        Result[] status = {Result.OK};
+        try {
+            new TraceParser().lire(file, (color, src, dst, result) -> {
+                StdDraw.clear();
+                drawLabelInformation(statusStringGenerator(src < 0 ? "?" : Board.NOTATION[src],
+                        dst < 0 ? "?" : Board.NOTATION[dst], status[0], 'N'));
+                affiche2();
+                StdDraw.pause(1000);
+                StdDraw.show();
+                status[0] = deplace(color, src, dst, ModeMvt.REAL);
+                if (status[0] == Result.OK) {
+                    cpt[0]++;
+                }
+                dernier[0] = color;
+            });
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+        if (dernier[0] == 'N') {
+            return;
         }
 
-        partie = turnList.get(turnList.size() - 1)[0].charAt(0);
-        partie = (partie == 'B') ? 'R' : 'B';
+        char partie = (dernier[0] == 'B') ? 'R' : 'B';
         StdDraw.clear();
-        drawLabelInformation(victoryStringGenerator(partie, cpt));
+        drawLabelInformation(victoryStringGenerator(partie, cpt[0]));
         affiche2();
         StdDraw.show();
     }
@@ -709,21 +1040,198 @@ public class StuckWin {
         System.out.println("java StuckWin [gameMode] [csvFile] :");
         System.out.println("\t-> [gameMode] (1: Console, 2: Graphical, 3: CSV File Playing, default: Graphical)");
         System.out.println("\t-> [csvFile] (si gameMode = 3) Trace à jouer au format 'StuckWin_XX.csv'");
+        System.out.println("java StuckWin [gameMode] [joueurBleu] [joueurRouge] : (si gameMode = 1 ou 2)");
+        System.out.println("\t-> [joueur] (h: Humain, ia[:ms[:mo[:fils[:det[:prof]]]]]: IA alpha-bêta, ms millisecondes par coup, table de mo Mo,");
+        System.out.println("\t   det: recherche reproductible à la profondeur prof (défaut: 8) au lieu de ms,");
+        System.out.println("\t   mcts[:ms[:fils]]: IA Monte-Carlo, défaut: h)");
+        System.out.println("\t-> --stats-trace : compteurs du fil d'écriture de la trace en fin de partie");
+        System.out.println("java StuckWin zobrist [n] : taux de collision du hachage sur n positions aléatoires, échec si collision");
+        System.out.println("java StuckWin smp [fils] [ms] [det [prof]] : accélération de la recherche parallèle de 1 à fils fils,");
+        System.out.println("\t   det: recherche reproductible à la profondeur prof (défaut: 8) au lieu de ms");
+        System.out.println("java StuckWin ordering [profondeur] : noeuds visités sans et avec tri des coups");
+        System.out.println("java StuckWin perft <profondeur> [fils] : feuilles de l'arbre des coups, détail par coup");
+        System.out.println("java StuckWin perft check [profondeur] [fils] : comparaison aux valeurs de référence");
+        System.out.println("java StuckWin tablebase [mobiles] [fichier] : table de finales jusqu'à mobiles pions mobiles par couleur,");
+        System.out.println("\t   les pions qui ne bougeront plus servant de murs (défaut: 3, StuckWin.tb)");
+        System.out.println("java StuckWin book [demi-coups] [dossier] [fichier] : bibliothèque d'ouvertures tirée des traces (défaut: 16, ., StuckWin.book)");
+        System.out.println("java StuckWin arena [parties] [joueurA] [joueurB] [fils] [dossier] : parties IA contre IA en parallèle,");
+        System.out.println("\t   couleurs alternées, traces écrites dans dossier (défaut: 100, ia:100:8, ia:100:8, aucune trace)");
+        System.out.println("java StuckWin sprt [elo0] [elo1] [joueurA] [joueurB] [fils] [max] [alpha] [beta] : parties par paires");
+        System.out.println("\t   jusqu'à ce que le SPRT accepte elo0 ou elo1 pour A - B (défaut: 0, 10, ia:100:8, ia:100:8, 20000, 0.05, 0.05)");
+        System.out.println("java StuckWin trace bin <csv> [swt] : trace CSV en trace binaire (2 octets par coup)");
+        System.out.println("java StuckWin trace csv <swt> [csv] : trace binaire en trace CSV");
+        System.out.println("java StuckWin trace check [csv...] : aller-retour CSV -> binaire -> CSV à l'identique (défaut: StuckWin_01.csv)");
+        System.out.println("java StuckWin corpus [dossier|archive] [fils] : lecture en masse des traces CSV et binaires");
+        System.out.println("\t   projetées en mémoire, bilan des parties et des coups, débit (défaut: ., tous les coeurs)");
+        System.out.println("java StuckWin motifs [fichier] : écrit les poids de l'évaluation par motifs (défaut: StuckWin.motifs)");
+        System.out.println("java StuckWin solve [fils] [mo] [fichier] [s] [max] : résolution de la position de départ, table de mo Mo,");
+        System.out.println("\t   sauvegarde dans fichier toutes les s secondes et reprise au lancement suivant, arrêt après max secondes (défaut: 1024, StuckWin.solve, 600, aucun)");
     }
 
 
+    /**
+     * Mesure le taux de collision du hachage de Zobrist sur des positions aléatoires
+     * (nombre de pions, cases et trait tirés au hasard) et l'affiche. Une collision est
+     * une même clé pour des pions ou un trait différents ; on en attend
+     * distinctes² / 2^65, et le test échoue au-delà de quatre fois cette espérance
+     * (donc dès la première collision pour les tirages usuels).
+     *
+     * @param nbPositions Nombre de positions à tirer
+     * @return vrai si le nombre de collisions ne dépasse pas la borne
+     */
+    boolean zobristCheck(int nbPositions) {
+        SplittableRandom random = new SplittableRandom(nbPositions);
+        Map<Long, Board> seen = new HashMap<>();
+        int[] cases = new int[Long.bitCount(Board.JOUABLE)];
+        int nbCases = 0;
+        for (long p = Board.JOUABLE; p != 0; p &= p - 1) {
+            cases[nbCases++] = Long.numberOfTrailingZeros(p);
+        }
+        int distinct = 0;
+        int collisions = 0;
+        for (int n = 0; n < nbPositions; n++) {
+            Board b = new Board();
+            for (int i = nbCases - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = cases[i];
+                cases[i] = cases[j];
+                cases[j] = tmp;
+            }
+            int nbBleus = 1 + random.nextInt(13);
+            int nbRouges = 1 + random.nextInt(13);
+            for (int i = 0; i < nbBleus + nbRouges; i++) {
+                b.pions[i < nbBleus ? Board.BLEU : Board.ROUGE] |= 1L << cases[i];
+            }
+            b.side = random.nextInt(2);
+            b.hash = b.computeHash();
+            Board other = seen.putIfAbsent(b.hash, b);
+            if (other == null) {
+                distinct++;
+            } else if (other.pions[Board.BLEU] != b.pions[Board.BLEU]
+                    || other.pions[Board.ROUGE] != b.pions[Board.ROUGE] || other.side != b.side) {
+                collisions++;
+            }
+        }
+        double attendu = (double) distinct * distinct / Math.pow(2, 65);
+        long borne = (long) Math.floor(4 * attendu);
+        System.out.println("Positions tirées : " + nbPositions + ", distinctes : " + distinct);
+        System.out.println("Collisions 64 bits : " + collisions + " (taux " + ((double) collisions / nbPositions)
+                + ", attendu " + attendu + ", borne " + borne + ")" + (collisions <= borne ? " OK" : " KO"));
+        return collisions <= borne;
+    }
+
     public static void main(String[] args) {
         StuckWin jeu = new StuckWin();
+        if (Arrays.asList(args).contains("--stats-trace")) {
+            jeu.statsTrace = true;
+            args = Arrays.stream(args).filter(a -> !a.equals("--stats-trace")).toArray(String[]::new);
+        }
         String arg = args.length > 0 ? args[0] : "2";
         if (arg.equals("--help")) {
             jeu.printGameHelp();
+        } else if (arg.equals("zobrist")) {
+            if (!jeu.zobristCheck(args.length >= 2 ? Integer.parseInt(args[1]) : 1000000)) {
+                System.exit(1);
+            }
+        } else if (arg.equals("perft") && args.length >= 2 && args[1].equals("check")) {
+            int depth = args.length >= 3 ? Integer.parseInt(args[2]) : Perft.ATTENDU.length - 1;
+            int nbThreads = args.length >= 4 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+            if (!Perft.check(depth, nbThreads)) {
+                System.exit(1);
+            }
+        } else if (arg.equals("perft")) {
+            Perft.divide(args.length >= 2 ? Integer.parseInt(args[1]) : 5,
+                    args.length >= 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+        } else if (arg.equals("tablebase")) {
+            try {
+                Tablebase.generate(args.length >= 2 ? Integer.parseInt(args[1]) : Tablebase.MOBILES_DEFAUT,
+                        new File(args.length >= 3 ? args[2] : Tablebase.FICHIER_DEFAUT));
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        } else if (arg.equals("book")) {
+            try {
+                Book.build(new File(args.length >= 3 ? args[2] : "."),
+                        args.length >= 2 ? Integer.parseInt(args[1]) : Book.DEMI_COUPS_DEFAUT,
+                        new File(args.length >= 4 ? args[3] : Book.FICHIER_DEFAUT));
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        } else if (arg.equals("solve")) {
+            Solver solver = new Solver(jeu.board,
+                    args.length >= 2 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors(),
+                    args.length >= 3 ? Integer.parseInt(args[2]) : 1024);
+            solver.solve(new File(args.length >= 4 ? args[3] : Solver.FICHIER_DEFAUT),
+                    args.length >= 5 ? Long.parseLong(args[4]) : 600, 10,
+                    args.length >= 6 ? Long.parseLong(args[5]) : 0);
+        } else if (arg.equals("arena")) {
+            Arena arena = new Arena(args.length >= 3 ? args[2] : Arena.JOUEUR_DEFAUT,
+                    args.length >= 4 ? args[3] : Arena.JOUEUR_DEFAUT,
+                    args.length >= 5 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors(),
+                    args.length >= 6 ? new File(args[5]) : null);
+            arena.run(args.length >= 2 ? Integer.parseInt(args[1]) : 100);
+        } else if (arg.equals("sprt")) {
+            Arena arena = new Arena(args.length >= 4 ? args[3] : Arena.JOUEUR_DEFAUT,
+                    args.length >= 5 ? args[4] : Arena.JOUEUR_DEFAUT,
+                    args.length >= 6 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors(), null);
+            arena.sprt(args.length >= 2 ? Double.parseDouble(args[1]) : 0,
+                    args.length >= 3 ? Double.parseDouble(args[2]) : 10,
+                    args.length >= 8 ? Double.parseDouble(args[7]) : 0.05,
+                    args.length >= 9 ? Double.parseDouble(args[8]) : 0.05,
+                    args.length >= 7 ? Integer.parseInt(args[6]) : 20000);
+        } else if (arg.equals("motifs")) {
+            File file = new File(args.length >= 2 ? args[1] : Board.FICHIER_POIDS);
+            try {
+                Board.saveWeights(file);
+                System.out.println("Poids des motifs écrits dans " + file);
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        } else if (arg.equals("trace") && args.length >= 3 && (args[1].equals("bin") || args[1].equals("csv"))) {
+            File source = new File(args[2]);
+            String nom = source.getName().replaceFirst("\\.[^.]*$", "");
+            try {
+                if (args[1].equals("bin")) {
+                    BinaryTrace.fromCsv(source, new File(args.length >= 4 ? args[3] : nom + BinaryTrace.EXTENSION));
+                } else {
+                    BinaryTrace.toCsv(source, new File(args.length >= 4 ? args[3] : nom + ".csv"));
+                }
+            } catch (IOException e) {
+                System.out.println(e);
+            }
+        } else if (arg.equals("trace") && args.length >= 2 && args[1].equals("check")) {
+            boolean identiques = true;
+            for (int i = 2; i < Math.max(args.length, 3); i++) {
+                try {
+                    identiques &= BinaryTrace.allerRetour(new File(i < args.length ? args[i] : "StuckWin_01.csv"));
+                } catch (IOException e) {
+                    System.out.println(e);
+                    identiques = false;
+                }
+            }
+            if (!identiques) {
+                System.exit(1);
+            }
+        } else if (arg.equals("corpus")) {
+            File source = new File(args.length >= 2 ? args[1] : ".");
+            TraceCorpus corpus = source.isDirectory() ? TraceCorpus.repertoire(source)
+                    : new TraceCorpus(Collections.singletonList(source));
+            corpus.bilan(args.length >= 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+        } else if (arg.equals("ordering")) {
+            Engine.benchOrdering(args.length >= 2 ? Integer.parseInt(args[1]) : 10);
+        } else if (arg.equals("smp")) {
+            Engine.benchSmp(args.length >= 2 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors(),
+                    args.length >= 3 ? Long.parseLong(args[2]) : 5000, args.length < 4 || !args[3].equals("det") ? 0
+                            : args.length >= 5 ? Integer.parseInt(args[4]) : Engine.PROFONDEUR_DETERMINISTE);
         } else {
             switch (Integer.parseInt(arg)) {
                 case 1:
+                    jeu.initJoueurs(args);
                     jeu.initCsvFile(1);
                     jeu.runGame(jeu, 1);
                     break;
                 case 2:
+                    jeu.initJoueurs(args);
                     jeu.initCsvFile(2);
                     jeu.runGame(jeu, 2);
                     break;
@@ -0,0 +1,437 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Table de finales de StuckWin : issue exacte (gain ou perte du joueur au trait) des
+ * positions de partie (13 pions par couleur) où chaque couleur a au plus K pions
+ * mobiles, calculée par analyse rétrograde et stockée à raison d'un bit par
+ * (position, trait).
+ *
+ * Un pion immobile (Board.immobiles) ne bougera plus : c'est un mur. Une classe est
+ * faite d'un motif de murs bleus, d'un motif de murs rouges et des positions où les
+ * autres pions occupent n'importe quelles cases libres. Les murs ne bougeant jamais,
+ * chaque classe est close et résolue à part. Les murs d'une couleur s'entassent dans
+ * son coin d'arrivée et ne forment qu'une poignée de motifs par taille : toutes les
+ * classes sont énumérées. Dans une classe, une position est numérotée par le rang
+ * (combinatoire) de l'ensemble des autres pions bleus parmi les cases libres, puis
+ * par celui des autres pions rouges parmi les cases restantes.
+ *
+ * Le fichier est lu par projection mémoire (MappedByteBuffer) : une consultation
+ * coûte un calcul d'indice et la lecture d'un octet, sans chargement sur le tas.
+ */
+public class Tablebase {
+    static final String FICHIER_DEFAUT = "StuckWin.tb";
+    static final int MOBILES_DEFAUT = 3;
+    private static final int MAGIC = 0x53575442; // "SWTB"
+    private static final int VERSION = 2;
+    private static final int ENTETE = 16;
+    private static final int SEGMENT = 1 << 30;
+
+    // cases jouables dans l'ordre des indices de Board, et indice de chaque case parmi elles
+    static final int[] CASES = new int[Long.bitCount(Board.JOUABLE)];
+    static final int[] RANG_CASE = new int[Board.NB_CASES];
+    static final long[][] BINOM = new long[CASES.length + 1][CASES.length + 1];
+
+    static {
+        int n = 0;
+        for (int sq = 0; sq < Board.NB_CASES; sq++) {
+            RANG_CASE[sq] = -1;
+            if ((Board.JOUABLE & (1L << sq)) != 0) {
+                RANG_CASE[sq] = n;
+                CASES[n++] = sq;
+            }
+        }
+        for (int i = 0; i <= CASES.length; i++) {
+            BINOM[i][0] = 1;
+            for (int j = 1; j <= i; j++) {
+                BINOM[i][j] = BINOM[i - 1][j - 1] + BINOM[i - 1][j];
+            }
+        }
+    }
+
+    private static Tablebase defaut;
+    private static boolean defautCharge;
+
+    final int maxMobiles;
+    // murs[couleur] : motifs de murs de la couleur, de NB_PIONS - maxMobiles à NB_PIONS pions
+    private final long[][] murs;
+    // offsets[classe] : numéro de la première position de la classe, classe = bleu * nbMotifsRouges + rouge
+    private final long[] offsets;
+    private final MappedByteBuffer[] segments;
+
+    private Tablebase(int maxMobiles, MappedByteBuffer[] segments) {
+        this.maxMobiles = maxMobiles;
+        this.murs = new long[][] {motifsMurs(Board.BLEU, maxMobiles), motifsMurs(Board.ROUGE, maxMobiles)};
+        this.offsets = offsets(this.murs);
+        this.segments = segments;
+    }
+
+    /**
+     * Table du fichier StuckWin.tb du répertoire courant, ouverte une seule fois
+     *
+     * @return la table, null si le fichier n'existe pas ou est invalide
+     */
+    static synchronized Tablebase defaut() {
+        if (!defautCharge) {
+            defautCharge = true;
+            File file = new File(FICHIER_DEFAUT);
+            if (file.exists()) {
+                try {
+                    defaut = open(file);
+                } catch (IOException e) {
+                    System.out.println(e);
+                }
+            }
+        }
+        return defaut;
+    }
+
+    /**
+     * Ouvre une table de finales par projection mémoire
+     *
+     * @param file fichier écrit par generate
+     * @return la table
+     * @throws IOException si le fichier est illisible ou n'est pas une table de finales
+     */
+    static Tablebase open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(ENTETE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " n'est pas une table de finales StuckWin");
+            }
+            int maxMobiles = header.getInt();
+            long size = channel.size() - ENTETE;
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT - 1) / SEGMENT)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i * SEGMENT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, ENTETE + start, Math.min(SEGMENT, size - start));
+            }
+            return new Tablebase(maxMobiles, segments);
+        }
+    }
+
+    /**
+     * Classe de la position, d'après ses pions immobiles. Ses successeurs gardent les
+     * mêmes murs : la classe de la racine vaut pour tout l'arbre de recherche.
+     *
+     * @param b position
+     * @return numéro de classe, -1 si la position n'est pas dans la table
+     */
+    int classe(Board b) {
+        if (Long.bitCount(b.pions[Board.BLEU]) != Board.NB_PIONS || Long.bitCount(b.pions[Board.ROUGE]) != Board.NB_PIONS) {
+            return -1;
+        }
+        long immobiles = b.immobiles();
+        int bleu = indexOf(murs[Board.BLEU], b.pions[Board.BLEU] & immobiles);
+        int rouge = indexOf(murs[Board.ROUGE], b.pions[Board.ROUGE] & immobiles);
+        return bleu < 0 || rouge < 0 ? -1 : bleu * murs[Board.ROUGE].length + rouge;
+    }
+
+    /**
+     * Rang d'un motif parmi ceux de la table, par parcours d'une liste de quelques dizaines de motifs
+     */
+    private static int indexOf(long[] motifs, long motif) {
+        for (int i = 0; i < motifs.length; i++) {
+            if (motifs[i] == motif) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Issue de la position pour le joueur au trait
+     *
+     * @param b    position
+     * @param side couleur au trait
+     * @return 1 si le joueur au trait gagne, 0 s'il perd, -1 si la position n'est pas dans la table
+     */
+    int probe(Board b, int side) {
+        int classe = classe(b);
+        return classe < 0 ? -1 : probe(classe, b, side);
+    }
+
+    /**
+     * Issue d'une position dont la classe est déjà connue, par exemple celle de la racine
+     *
+     * @param classe classe de la position, donnée par classe(Board)
+     * @param b      position
+     * @param side   couleur au trait
+     * @return 1 si le joueur au trait gagne, 0 s'il perd
+     */
+    int probe(int classe, Board b, int side) {
+        long mursClasse = murs[Board.BLEU][classe / murs[Board.ROUGE].length] | murs[Board.ROUGE][classe % murs[Board.ROUGE].length];
+        long bit = 2 * (offsets[classe] + index(b.pions[Board.BLEU] & ~mursClasse, b.pions[Board.ROUGE] & ~mursClasse, mursClasse)) + side;
+        long octet = bit >>> 3;
+        return segments[(int) (octet / SEGMENT)].get((int) (octet % SEGMENT)) >>> (bit & 7) & 1;
+    }
+
+    /**
+     * Numéro de la position dans sa classe
+     *
+     * @param bleus  pions bleus hors murs
+     * @param rouges pions rouges hors murs
+     * @param murs   murs de la classe
+     */
+    static long index(long bleus, long rouges, long murs) {
+        long rangBleus = 0;
+        long rangRouges = 0;
+        int i = 0;
+        for (long p = bleus; p != 0; p &= p - 1) {
+            int sq = Long.numberOfTrailingZeros(p);
+            rangBleus += BINOM[RANG_CASE[sq] - Long.bitCount(murs & ((1L << sq) - 1))][++i];
+        }
+        long pris = murs | bleus;
+        i = 0;
+        for (long p = rouges; p != 0; p &= p - 1) {
+            int sq = Long.numberOfTrailingZeros(p);
+            rangRouges += BINOM[RANG_CASE[sq] - Long.bitCount(pris & ((1L << sq) - 1))][++i];
+        }
+        return rangBleus * BINOM[CASES.length - Long.bitCount(pris)][Long.bitCount(rouges)] + rangRouges;
+    }
+
+    /**
+     * Retrouve les pions d'une position à partir de son numéro dans sa classe
+     *
+     * @param index    numéro de la position
+     * @param nbBleus  nombre de pions bleus hors murs
+     * @param nbRouges nombre de pions rouges hors murs
+     * @param mursBleus  murs bleus de la classe
+     * @param mursRouges murs rouges de la classe
+     * @param b        plateau à remplir
+     */
+    static void decode(long index, int nbBleus, int nbRouges, long mursBleus, long mursRouges, Board b) {
+        long murs = mursBleus | mursRouges;
+        long nbPlacementsRouges = BINOM[CASES.length - Long.bitCount(murs) - nbBleus][nbRouges];
+        long bleus = unrank(index / nbPlacementsRouges, nbBleus, murs);
+        b.pions[Board.BLEU] = mursBleus | bleus;
+        b.pions[Board.ROUGE] = mursRouges | unrank(index % nbPlacementsRouges, nbRouges, murs | bleus);
+    }
+
+    /**
+     * Ensemble de k cases de rang donné parmi les cases jouables hors des cases exclues
+     */
+    private static long unrank(long rank, int k, long exclues) {
+        long result = 0;
+        int p = CASES.length - Long.bitCount(exclues) - 1;
+        for (int i = k; i >= 1; i--) {
+            while (BINOM[p][i] > rank) {
+                p--;
+            }
+            rank -= BINOM[p][i];
+            // p-ième case jouable non exclue
+            int rang = p;
+            for (long e = exclues; e != 0 && RANG_CASE[Long.numberOfTrailingZeros(e)] <= rang; e &= e - 1) {
+                rang++;
+            }
+            result |= 1L << CASES[rang];
+            p--;
+        }
+        return result;
+    }
+
+    /**
+     * Motifs de murs d'une couleur : ensembles de pions dont chaque case avant est
+     * hors du plateau ou dans l'ensemble, construits pion par pion depuis le coin
+     * d'arrivée de la couleur.
+     *
+     * @param color      BLEU ou ROUGE
+     * @param maxMobiles nombre maximal de pions hors murs
+     * @return motifs de NB_PIONS - maxMobiles à NB_PIONS pions, par taille puis par masque croissants
+     */
+    static long[] motifsMurs(int color, int maxMobiles) {
+        List<Long> motifs = new ArrayList<>();
+        long[] niveau = {0};
+        for (int n = 1; n <= Board.NB_PIONS; n++) {
+            List<Long> suivant = new ArrayList<>();
+            for (long motif : niveau) {
+                for (long p = Board.JOUABLE & ~motif; p != 0; p &= p - 1) {
+                    int sq = Long.numberOfTrailingZeros(p);
+                    if ((Board.FORWARD_MASK[color][sq] & ~motif) == 0) {
+                        suivant.add(motif | 1L << sq);
+                    }
+                }
+            }
+            niveau = suivant.stream().mapToLong(Long::longValue).sorted().distinct().toArray();
+            if (n >= Board.NB_PIONS - maxMobiles) {
+                for (long motif : niveau) {
+                    motifs.add(motif);
+                }
+            }
+        }
+        return motifs.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Premier numéro de position de chaque classe, la dernière case portant le total.
+     * Deux motifs qui se chevauchent donnent une classe vide.
+     */
+    private static long[] offsets(long[][] murs) {
+        long[] offsets = new long[murs[Board.BLEU].length * murs[Board.ROUGE].length + 1];
+        long total = 0;
+        for (int classe = 0; classe < offsets.length - 1; classe++) {
+            offsets[classe] = total;
+            total += taille(murs[Board.BLEU][classe / murs[Board.ROUGE].length], murs[Board.ROUGE][classe % murs[Board.ROUGE].length]);
+        }
+        offsets[offsets.length - 1] = total;
+        return offsets;
+    }
+
+    /**
+     * @return nombre de positions (sans le trait) de la classe de ces murs
+     */
+    private static long taille(long mursBleus, long mursRouges) {
+        if ((mursBleus & mursRouges) != 0) {
+            return 0;
+        }
+        int libres = CASES.length - Long.bitCount(mursBleus) - Long.bitCount(mursRouges);
+        int nbBleus = Board.NB_PIONS - Long.bitCount(mursBleus);
+        int nbRouges = Board.NB_PIONS - Long.bitCount(mursRouges);
+        return BINOM[libres][nbBleus] * BINOM[libres - nbBleus][nbRouges];
+    }
+
+    /**
+     * Calcule par analyse rétrograde toutes les classes d'au plus maxMobiles pions hors
+     * murs par couleur et écrit la table dans le fichier.
+     *
+     * Les positions où le joueur au trait est bloqué sont gagnées pour lui. Depuis
+     * chaque position résolue, on remonte les coups de la couleur qui vient de jouer :
+     * si la position est perdue pour le joueur au trait, son prédécesseur est gagné ;
+     * sinon on décompte un coup du prédécesseur, perdu quand tous ses coups mènent à
+     * une position gagnée pour l'adversaire.
+     *
+     * @param maxMobiles nombre maximal de pions hors murs par couleur
+     * @param file       fichier à écrire
+     * @throws IOException en cas d'erreur d'écriture
+     */
+    static void generate(int maxMobiles, File file) throws IOException {
+        long[][] murs = {motifsMurs(Board.BLEU, maxMobiles), motifsMurs(Board.ROUGE, maxMobiles)};
+        long[] offsets = offsets(murs);
+        long total = offsets[offsets.length - 1];
+        long[] gains = new long[(int) ((2 * total + 63) / 64)];
+        long start = System.nanoTime();
+        int nbRouges = murs[Board.ROUGE].length;
+        for (int classe = 0; classe < offsets.length - 1; classe++) {
+            long mursBleus = murs[Board.BLEU][classe / nbRouges];
+            long mursRouges = murs[Board.ROUGE][classe % nbRouges];
+            if (offsets[classe + 1] > offsets[classe]) {
+                solveClass(mursBleus, mursRouges, offsets[classe], gains);
+            }
+            if (classe % nbRouges == nbRouges - 1) {
+                System.out.println("Murs bleus " + (classe / nbRouges + 1) + "/" + murs[Board.BLEU].length + " ("
+                        + Long.bitCount(mursBleus) + " pions) résolus (" + (System.nanoTime() - start) / 1_000_000 + " ms)");
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(ENTETE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(maxMobiles).putInt(0).flip();
+            channel.write(header);
+            ByteBuffer data = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            long nbOctets = (2 * total + 7) / 8;
+            for (long octet = 0; octet < nbOctets; octet++) {
+                data.put((byte) (gains[(int) (octet >>> 3)] >>> ((octet & 7) * 8)));
+                if (!data.hasRemaining()) {
+                    data.flip();
+                    channel.write(data);
+                    data.clear();
+                }
+            }
+            data.flip();
+            channel.write(data);
+        }
+        System.out.println(total + " positions écrites dans " + file + " (" + file.length() + " octets)");
+    }
+
+    /**
+     * Analyse rétrograde d'une classe, dont les résultats sont rangés dans gains
+     * à partir de la position numéro offset
+     */
+    private static void solveClass(long mursBleus, long mursRouges, long offset, long[] gains) {
+        long murs = mursBleus | mursRouges;
+        int nbBleus = Board.NB_PIONS - Long.bitCount(mursBleus);
+        int nbRouges = Board.NB_PIONS - Long.bitCount(mursRouges);
+        long size = taille(mursBleus, mursRouges);
+        if (2 * size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Classe " + nbBleus + "/" + nbRouges + " trop grande pour la génération");
+        }
+        int n = (int) (2 * size);
+        // entrée = 2 * position + trait
+        byte[] restants = new byte[n];
+        long[] resolus = new long[(n + 63) / 64];
+        int[] file = new int[n];
+        int tete = 0;
+        int queue = 0;
+        Board b = new Board();
+        for (int pos = 0; pos < size; pos++) {
+            decode(pos, nbBleus, nbRouges, mursBleus, mursRouges, b);
+            for (int side = Board.BLEU; side <= Board.ROUGE; side++) {
+                int entree = 2 * pos + side;
+                int mobilite = b.mobility(side, b.pions[side]);
+                if (mobilite == 0) {
+                    resolus[entree >>> 6] |= 1L << entree;
+                    setGain(gains, offset, entree);
+                    file[queue++] = entree;
+                } else {
+                    restants[entree] = (byte) mobilite;
+                }
+            }
+        }
+        while (tete < queue) {
+            int entree = file[tete++];
+            int side = entree & 1;
+            boolean gagne = isGain(gains, offset, entree);
+            decode(entree >>> 1, nbBleus, nbRouges, mursBleus, mursRouges, b);
+            // la couleur qui vient de jouer a trait dans le prédécesseur ; ses murs n'ont pas bougé
+            int color = side ^ 1;
+            long vides = b.empty();
+            for (long p = b.pions[color] & ~murs; p != 0; p &= p - 1) {
+                int dst = Long.numberOfTrailingZeros(p);
+                for (long srcs = Board.BACKWARD_MASK[color][dst] & vides; srcs != 0; srcs &= srcs - 1) {
+                    int src = Long.numberOfTrailingZeros(srcs);
+                    b.pions[color] ^= (1L << src) | (1L << dst);
+                    int pred = (int) (2 * index(b.pions[Board.BLEU] & ~murs, b.pions[Board.ROUGE] & ~murs, murs) + color);
+                    b.pions[color] ^= (1L << src) | (1L << dst);
+                    if ((resolus[pred >>> 6] & (1L << pred)) != 0) {
+                        continue;
+                    }
+                    if (!gagne) {
+                        resolus[pred >>> 6] |= 1L << pred;
+                        setGain(gains, offset, pred);
+                        file[queue++] = pred;
+                    } else if (--restants[pred] == 0) {
+                        resolus[pred >>> 6] |= 1L << pred;
+                        file[queue++] = pred;
+                    }
+                }
+            }
+        }
+    }
+
+    private static void setGain(long[] gains, long offset, int entree) {
+        long bit = 2 * offset + entree;
+        gains[(int) (bit >>> 6)] |= 1L << bit;
+    }
+
+    private static boolean isGain(long[] gains, long offset, int entree) {
+        long bit = 2 * offset + entree;
+        return (gains[(int) (bit >>> 6)] & (1L << bit)) != 0;
+    }
+}
@@ -0,0 +1,246 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Lecture en masse d'un ensemble de traces : fichiers StuckWin_XX.csv, traces binaires
+ * (.swt) ou archives faites de traces mises bout à bout, dans l'un ou l'autre format.
+ *
+ * Chaque fichier est projeté en mémoire (FileChannel.map, par segments de 1 Go) et
+ * analysé directement dans le buffer projeté, par TraceParser pour le CSV et par
+ * BinaryTrace pour le binaire, reconnu à son entête. Une ligne CSV peut être à cheval
+ * sur deux segments ; un fichier binaire est lu par une fenêtre glissante qui
+ * recommence au début de la première partie qu'elle ne contient pas en entier.
+ * Les fichiers sont répartis entre plusieurs fils, chacun avec son propre analyseur
+ * et son propre visiteur.
+ */
+public class TraceCorpus {
+    private static final long TAILLE_SEGMENT = 1L << 30;
+    private static final Pattern TRACE = Pattern.compile("StuckWin_\\d+\\.csv|.*\\" + BinaryTrace.EXTENSION);
+
+    /**
+     * Visiteur d'un corpus : par fichier, par partie (entete / fin) et par coup (coup)
+     */
+    interface Visiteur extends BinaryTrace.Visiteur {
+        /**
+         * @param file fichier dont les parties vont suivre
+         */
+        default void fichier(File file) {
+        }
+    }
+
+    final List<File> fichiers;
+    // taille des segments projetés
+    long tailleSegment = TAILLE_SEGMENT;
+    final LongAdder octets = new LongAdder();
+    final LongAdder erreurs = new LongAdder();
+
+    /**
+     * @param fichiers traces ou archives à lire
+     */
+    TraceCorpus(List<File> fichiers) {
+        this.fichiers = fichiers;
+    }
+
+    /**
+     * Corpus des traces StuckWin_XX.csv et .swt d'un répertoire, par ordre de nom
+     *
+     * @param dir répertoire des traces
+     * @return le corpus, vide si le répertoire n'existe pas
+     */
+    static TraceCorpus repertoire(File dir) {
+        File[] traces = dir.listFiles(f -> f.isFile() && TRACE.matcher(f.getName()).matches());
+        if (traces == null) {
+            traces = new File[0];
+        }
+        Arrays.sort(traces);
+        return new TraceCorpus(Arrays.asList(traces));
+    }
+
+    /**
+     * Lit tous les fichiers, chaque fil prenant le prochain fichier libre
+     *
+     * @param nbThreads nombre de fils
+     * @param fabrique  donne le visiteur de chaque fil ; un visiteur n'est appelé que par un fil
+     */
+    void parcourir(int nbThreads, Supplier<? extends Visiteur> fabrique) {
+        AtomicInteger prochain = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, nbThreads));
+        for (int t = 0; t < Math.max(1, nbThreads); t++) {
+            Visiteur visiteur = fabrique.get();
+            pool.execute(() -> {
+                TraceParser parser = new TraceParser(0);
+                int i;
+                while ((i = prochain.getAndIncrement()) < fichiers.size()) {
+                    try {
+                        lire(fichiers.get(i), parser, visiteur);
+                    } catch (IOException e) {
+                        erreurs.increment();
+                        System.out.println(fichiers.get(i) + " : " + e);
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lit un fichier projeté en mémoire
+     *
+     * @param file     trace ou archive, CSV ou binaire
+     * @param parser   analyseur CSV du fil
+     * @param visiteur reçoit le fichier, puis chaque partie et chacun de ses coups
+     * @throws IOException si le fichier est illisible ou si une trace binaire est invalide
+     */
+    void lire(File file, TraceParser parser, Visiteur visiteur) throws IOException {
+        visiteur.fichier(file);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long taille = channel.size();
+            octets.add(taille);
+            if (taille == 0) {
+                return;
+            }
+            MappedByteBuffer premier = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(tailleSegment, taille));
+            if (BinaryTrace.estBinaire(premier)) {
+                lireBinaire(channel, taille, premier, visiteur);
+                return;
+            }
+            ByteBuffer[] segments = new ByteBuffer[(int) ((taille + tailleSegment - 1) / tailleSegment)];
+            segments[0] = premier;
+            for (int s = 1; s < segments.length; s++) {
+                long debut = s * tailleSegment;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, debut, Math.min(tailleSegment, taille - debut));
+            }
+            parser.lire(segments, visiteur);
+        }
+    }
+
+    /**
+     * Lit les traces binaires d'un fichier par une fenêtre glissante : chaque partie est
+     * mesurée avant d'être lue, et la fenêtre est projetée à nouveau à partir de la
+     * première partie qui déborde.
+     *
+     * @param fenetre première fenêtre, projetée au début du fichier
+     */
+    private void lireBinaire(FileChannel channel, long taille, MappedByteBuffer fenetre, Visiteur visiteur)
+            throws IOException {
+        long debut = 0;
+        while (true) {
+            boolean derniere = debut + fenetre.limit() == taille;
+            while (fenetre.hasRemaining()) {
+                int n = BinaryTrace.longueur(fenetre);
+                if (n < 0) {
+                    if (derniere) {
+                        throw new IOException("Trace binaire tronquée à l'octet " + (debut + fenetre.position()));
+                    }
+                    if (fenetre.position() == 0) {
+                        throw new IOException("Partie de plus de " + tailleSegment + " octets à l'octet " + debut);
+                    }
+                    break;
+                }
+                BinaryTrace.lire(fenetre, visiteur);
+            }
+            debut += fenetre.position();
+            if (debut == taille) {
+                return;
+            }
+            fenetre = channel.map(FileChannel.MapMode.READ_ONLY, debut, Math.min(tailleSegment, taille - debut));
+        }
+    }
+
+    /**
+     * Statistiques d'un fil : parties, coups et résultats des coups
+     */
+    static class Bilan implements Visiteur {
+        long fichiers;
+        long parties;
+        long coups;
+        final long[] resultats = new long[StuckWin.Result.values().length + 1];
+
+        @Override
+        public void fichier(File file) {
+            fichiers++;
+        }
+
+        @Override
+        public void entete(String mode, LocalDateTime date) {
+            parties++;
+        }
+
+        @Override
+        public void coup(char color, int src, int dst, int result) {
+            coups++;
+            // résultat inconnu (-1) dans la dernière case
+            resultats[result < 0 ? resultats.length - 1 : result]++;
+        }
+
+        void add(Bilan other) {
+            fichiers += other.fichiers;
+            parties += other.parties;
+            coups += other.coups;
+            for (int r = 0; r < resultats.length; r++) {
+                resultats[r] += other.resultats[r];
+            }
+        }
+    }
+
+    /**
+     * Parcourt le corpus et affiche le nombre de parties, de coups par résultat et le débit
+     *
+     * @param nbThreads nombre de fils
+     */
+    void bilan(int nbThreads) {
+        List<Bilan> bilans = new ArrayList<>();
+        long start = System.nanoTime();
+        parcourir(nbThreads, () -> {
+            Bilan b = new Bilan();
+            synchronized (bilans) {
+                bilans.add(b);
+            }
+            return b;
+        });
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        Bilan total = new Bilan();
+        for (Bilan b : bilans) {
+            total.add(b);
+        }
+        StringBuilder detail = new StringBuilder();
+        StuckWin.Result[] noms = StuckWin.Result.values();
+        for (int r = 0; r < total.resultats.length; r++) {
+            if (total.resultats[r] > 0) {
+                detail.append(", ").append(r < noms.length ? noms[r].name() : "inconnu").append(' ').append(total.resultats[r]);
+            }
+        }
+        System.out.println("Corpus : " + total.fichiers + " fichiers, " + total.parties + " parties, " + total.coups
+                + " coups" + detail + ", " + erreurs.sum() + " erreurs");
+        System.out.println(String.format("%d octets en %.2f s, %.2f Go/s, %.0f coups/s (%d fils)", octets.sum(),
+                elapsed / 1e9, octets.sum() / (double) elapsed, total.coups * 1e9 / elapsed, Math.max(1, nbThreads)));
+    }
+}
@@ -0,0 +1,368 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Lecture en flux d'une trace StuckWin_XX.csv. Les octets passent par un tampon
+ * réutilisé d'un fichier à l'autre et sont analysés un par un, sans créer de
+ * chaîne par ligne : chaque coup est passé au visiteur sous forme de champs primitifs.
+ *
+ * Une ligne est un coup si elle a quatre champs et une couleur d'un caractère ;
+ * les commentaires (#), l'entête des colonnes et les lignes vides sont ignorés.
+ * Une case qui n'est pas un nom de case vaut -1, un résultat inconnu aussi.
+ * Les fins de ligne \r\n sont acceptées.
+ *
+ * Des traces mises bout à bout forment plusieurs parties : la ligne "# StuckWin Game"
+ * commence une nouvelle partie dès que la partie en cours a au moins un coup.
+ */
+public class TraceParser {
+    static final int TAILLE_TAMPON = 1 << 16;
+    // plus long nom de StuckWin.Result, retour chariot compris, arrondi
+    private static final int LONGUEUR_RESULTAT = 16;
+    private static final byte[][] NOMS_RESULTATS = new byte[StuckWin.Result.values().length][];
+    // première ligne de StuckWin.enteteCsv
+    private static final byte[] DEBUT_PARTIE = "# StuckWin Game".getBytes();
+
+    static {
+        for (StuckWin.Result r : StuckWin.Result.values()) {
+            NOMS_RESULTATS[r.ordinal()] = r.name().getBytes();
+        }
+    }
+
+    private final byte[] tampon;
+    private final byte[] resultat = new byte[LONGUEUR_RESULTAT];
+    private BinaryTrace.Visiteur visiteur;
+
+    // ligne en cours : indice du champ (-1 si la ligne est ignorée), longueur du champ
+    private int champ;
+    private int longueur;
+    private char couleur;
+    // ligne et colonne de la case en cours de lecture
+    private int ligneCase;
+    private int colonneCase;
+    private int src;
+    private int dst;
+    private int dernierOctet;
+    // octets de DEBUT_PARTIE reconnus au début de la ligne, -1 si elle en diffère
+    private int debutPartie;
+    private long coupsPartie;
+
+    // compteurs depuis la création
+    long octets;
+    long lignes;
+    long coups;
+    long parties;
+
+    TraceParser() {
+        this(TAILLE_TAMPON);
+    }
+
+    /**
+     * @param taille taille du tampon de lecture en octets
+     */
+    TraceParser(int taille) {
+        this.tampon = new byte[taille];
+    }
+
+    /**
+     * Lit une trace
+     *
+     * @param file     fichier StuckWin_XX.csv
+     * @param visiteur reçoit chaque coup puis la fin de la trace
+     * @throws IOException en cas d'erreur de lecture
+     */
+    void lire(File file, BinaryTrace.Visiteur visiteur) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            lire(in, visiteur);
+        }
+    }
+
+    /**
+     * Lit une trace jusqu'à la fin du flux
+     *
+     * @param in       flux de la trace, lu par blocs dans le tampon
+     * @param visiteur reçoit chaque coup puis la fin de la trace
+     * @throws IOException en cas d'erreur de lecture
+     */
+    void lire(InputStream in, BinaryTrace.Visiteur visiteur) throws IOException {
+        debut(visiteur);
+        int n;
+        while ((n = in.read(tampon)) >= 0) {
+            for (int i = 0; i < n; i++) {
+                octet(tampon[i]);
+            }
+            octets += n;
+        }
+        terminer();
+    }
+
+    /**
+     * Lit une trace entre la position et la limite d'un buffer, sans les modifier
+     *
+     * @param buffer   contenu de la trace
+     * @param visiteur reçoit chaque coup puis la fin de la trace
+     */
+    void lire(ByteBuffer buffer, BinaryTrace.Visiteur visiteur) {
+        lire(new ByteBuffer[] {buffer}, visiteur);
+    }
+
+    /**
+     * Lit une trace découpée en plusieurs buffers consécutifs (segments d'un fichier
+     * projeté en mémoire par exemple) ; une ligne peut être à cheval sur deux segments.
+     * Un buffer petit-boutiste est lu à travers une copie gros-boutiste de ses indices,
+     * dont la lecture rapide a besoin.
+     *
+     * @param segments contenu de la trace, chacun entre sa position et sa limite
+     * @param visiteur reçoit chaque coup puis la fin de la trace
+     */
+    void lire(ByteBuffer[] segments, BinaryTrace.Visiteur visiteur) {
+        debut(visiteur);
+        for (ByteBuffer segment : segments) {
+            ByteBuffer buffer = segment.order() == ByteOrder.BIG_ENDIAN ? segment
+                    : segment.duplicate().order(ByteOrder.BIG_ENDIAN);
+            int fin = buffer.limit();
+            int i = buffer.position();
+            while (i < fin) {
+                int n = champ == 0 && longueur == 0 ? ligneRapide(buffer, i, fin) : 0;
+                if (n > 0) {
+                    i += n;
+                } else {
+                    octet(buffer.get(i++));
+                }
+            }
+            octets += fin - buffer.position();
+        }
+        terminer();
+    }
+
+    /**
+     * Lit d'un coup une ligne de coup écrite par StuckWin.ligneCsv, sans passer par
+     * l'automate octet par octet
+     *
+     * @param buffer buffer gros-boutiste
+     * @param i      début de la ligne
+     * @param fin    limite du buffer
+     * @return longueur de la ligne, retour à la ligne compris ; 0 si la ligne n'a pas
+     *         exactement cette forme ou n'est pas entière dans le buffer
+     */
+    private int ligneRapide(ByteBuffer buffer, int i, int fin) {
+        if (fin - i < 11) {
+            return 0;
+        }
+        // les huit premiers octets "C,Lc,Lc," lus d'un coup, le premier dans l'octet de poids fort :
+        // le buffer doit être gros-boutiste (voir lire)
+        long debut = buffer.getLong(i);
+        int c = (int) (debut >>> 56);
+        int ligneSrc = (int) (debut >>> 40 & 0xFF) - 'A';
+        int colonneSrc = (int) (debut >>> 32 & 0xFF) - '0';
+        int ligneDst = (int) (debut >>> 16 & 0xFF) - 'A';
+        int colonneDst = (int) (debut >>> 8 & 0xFF) - '0';
+        if ((debut & 0x00FF0000FF0000FFL) != 0x002C00002C00002CL || (c != 'B' && c != 'R') || ligneSrc < 0
+                || ligneSrc >= Board.NB_LIGNES || colonneSrc < 0 || colonneSrc >= Board.NB_COLONNES || ligneDst < 0
+                || ligneDst >= Board.NB_LIGNES || colonneDst < 0 || colonneDst >= Board.NB_COLONNES) {
+            return 0;
+        }
+        if (buffer.get(i + 8) == 'O' && buffer.get(i + 9) == 'K' && buffer.get(i + 10) == '\n') {
+            // cas le plus fréquent
+            return coupRapide(c, ligneSrc, colonneSrc, ligneDst, colonneDst, StuckWin.Result.OK.ordinal(), 11);
+        }
+        int j = i + 8;
+        int max = Math.min(fin, j + LONGUEUR_RESULTAT);
+        while (j < max && buffer.get(j) != '\n') {
+            j++;
+        }
+        if (j == max) {
+            return 0;
+        }
+        int r = resultat(buffer, i + 8, j);
+        if (r < 0) {
+            return 0;
+        }
+        return coupRapide(c, ligneSrc, colonneSrc, ligneDst, colonneDst, r, j + 1 - i);
+    }
+
+    private int coupRapide(int c, int ligneSrc, int colonneSrc, int ligneDst, int colonneDst, int r, int n) {
+        dernierOctet = '\n';
+        lignes++;
+        coups++;
+        coupsPartie++;
+        visiteur.coup((char) c, Board.index(ligneSrc, colonneSrc), Board.index(ligneDst, colonneDst), r);
+        return n;
+    }
+
+    /**
+     * @return ordinal du résultat écrit entre debut et fin, -1 s'il est inconnu
+     */
+    private static int resultat(ByteBuffer buffer, int debut, int fin) {
+        for (int r = 0; r < NOMS_RESULTATS.length; r++) {
+            byte[] nom = NOMS_RESULTATS[r];
+            if (nom.length == fin - debut) {
+                int k = 0;
+                while (k < nom.length && nom[k] == buffer.get(debut + k)) {
+                    k++;
+                }
+                if (k == nom.length) {
+                    return r;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void debut(BinaryTrace.Visiteur visiteur) {
+        this.visiteur = visiteur;
+        this.champ = 0;
+        this.longueur = 0;
+        this.dernierOctet = '\n';
+        this.debutPartie = 0;
+        this.coupsPartie = 0;
+        this.parties++;
+        visiteur.entete("", null);
+    }
+
+    /**
+     * Avance d'un octet dans la ligne en cours
+     */
+    private void octet(byte b) {
+        int c = b & 0xFF;
+        dernierOctet = c;
+        if (c == '\n') {
+            finLigne();
+        } else if (champ < 0) {
+            if (debutPartie > 0) {
+                debutPartie = debutPartie < DEBUT_PARTIE.length && c == DEBUT_PARTIE[debutPartie] ? debutPartie + 1
+                        : debutPartie == DEBUT_PARTIE.length && c == '\r' ? debutPartie : -1;
+            }
+        } else if (c == ',') {
+            finChamp();
+        } else {
+            switch (champ) {
+                case 0:
+                    if (longueur == 0) {
+                        couleur = (char) c;
+                        if (c == '#') {
+                            champ = -1;
+                            debutPartie = 1;
+                            return;
+                        }
+                    }
+                    break;
+                case 1:
+                case 2:
+                    if (longueur == 0) {
+                        ligneCase = c - 'A';
+                    } else if (longueur == 1) {
+                        colonneCase = c - '0';
+                    }
+                    break;
+                case 3:
+                    if (longueur < LONGUEUR_RESULTAT) {
+                        resultat[longueur] = b;
+                    }
+                    break;
+                default:
+                    // cinquième champ : la ligne n'est pas un coup
+                    champ = -1;
+                    return;
+            }
+            longueur++;
+        }
+    }
+
+    /**
+     * Termine le champ en cours à la lecture d'une virgule
+     */
+    private void finChamp() {
+        switch (champ) {
+            case 0:
+                if (longueur != 1) {
+                    // entête des colonnes ou ligne mal formée
+                    champ = -1;
+                    return;
+                }
+                break;
+            case 1:
+                src = caseLue();
+                break;
+            case 2:
+                dst = caseLue();
+                break;
+            default:
+                champ = -1;
+                return;
+        }
+        champ++;
+        longueur = 0;
+    }
+
+    /**
+     * @return indice de la case lue dans le champ, -1 si ce n'est pas un nom de case
+     */
+    private int caseLue() {
+        if (longueur != 2 || ligneCase < 0 || ligneCase >= Board.NB_LIGNES || colonneCase < 0
+                || colonneCase >= Board.NB_COLONNES) {
+            return -1;
+        }
+        return Board.index(ligneCase, colonneCase);
+    }
+
+    /**
+     * @return ordinal du résultat lu dans le dernier champ, -1 s'il est inconnu
+     */
+    private int resultatLu() {
+        int n = longueur > 0 && longueur <= LONGUEUR_RESULTAT && resultat[longueur - 1] == '\r' ? longueur - 1 : longueur;
+        for (int r = 0; r < NOMS_RESULTATS.length; r++) {
+            byte[] nom = NOMS_RESULTATS[r];
+            if (nom.length == n) {
+                int i = 0;
+                while (i < n && nom[i] == resultat[i]) {
+                    i++;
+                }
+                if (i == n) {
+                    return r;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Termine la ligne : passe le coup au visiteur si elle en est un
+     */
+    private void finLigne() {
+        if (champ == 3) {
+            coups++;
+            coupsPartie++;
+            visiteur.coup(couleur, src, dst, resultatLu());
+        } else if (debutPartie == DEBUT_PARTIE.length && coupsPartie > 0) {
+            visiteur.fin(true);
+            visiteur.entete("", null);
+            coupsPartie = 0;
+            parties++;
+        }
+        lignes++;
+        champ = 0;
+        longueur = 0;
+        debutPartie = 0;
+    }
+
+    private void terminer() {
+        boolean retourFinal = dernierOctet == '\n';
+        if (!retourFinal) {
+            finLigne();
+        }
+        visiteur.fin(retourFinal);
+        visiteur = null;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Écriture d'un fichier trace StuckWin_XX.csv pendant toute une partie : le fichier
+ * reste ouvert et les lignes passent par un tampon, vidé selon la politique choisie.
+ * Le contenu écrit est celui de StuckWin.enteteCsv et StuckWin.ligneCsv, octet pour octet.
+ * Les traces encore ouvertes sont vidées à l'arrêt de la JVM.
+ */
+public class TraceWriter implements Closeable {
+
+    /**
+     * Moment où le tampon est écrit dans le fichier
+     */
+    enum Flush {
+        // après chaque ligne
+        CHAQUE_COUP,
+        // toutes les n lignes
+        TOUS_LES_N,
+        // à la fermeture seulement
+        FIN_DE_PARTIE
+    }
+
+    private static final Set<TraceWriter> OUVERTES = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (TraceWriter trace : OUVERTES) {
+                trace.flush();
+            }
+        }, "StuckWin-traces"));
+    }
+
+    final File file;
+    final Flush politique;
+    final int n;
+    private final BufferedWriter writer;
+    private int enAttente;
+
+    /**
+     * Ouvre le fichier en ajout
+     *
+     * @param file      fichier trace
+     * @param politique moment où le tampon est vidé
+     * @param n         nombre de lignes entre deux écritures pour TOUS_LES_N
+     * @throws IOException si le fichier ne peut pas être ouvert
+     */
+    TraceWriter(File file, Flush politique, int n) throws IOException {
+        this.file = file;
+        this.politique = politique;
+        this.n = Math.max(1, n);
+        // même jeu de caractères que le FileWriter d'origine
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true)));
+        OUVERTES.add(this);
+    }
+
+    /**
+     * Écrit l'entête de la trace, immédiatement si chaque coup est écrit
+     *
+     * @param gameTypeStr Interface de jeu (Terminal, Graphical, ...)
+     */
+    synchronized void header(String gameTypeStr) {
+        write(StuckWin.enteteCsv(gameTypeStr), politique == Flush.CHAQUE_COUP);
+    }
+
+    /**
+     * Ajoute la ligne d'un coup
+     *
+     * @param color  Couleur du joueur (char)
+     * @param start  Pièce source (String)
+     * @param dest   Pièce dest. (String)
+     * @param result Etat du mouvement
+     */
+    synchronized void append(char color, String start, String dest, StuckWin.Result result) {
+        appendLigne(StuckWin.ligneCsv(color, start, dest, result));
+    }
+
+    /**
+     * Ajoute une ligne déjà formatée
+     *
+     * @param ligne ligne terminée par un retour à la ligne
+     */
+    synchronized void appendLigne(String ligne) {
+        enAttente++;
+        write(ligne, politique == Flush.CHAQUE_COUP || (politique == Flush.TOUS_LES_N && enAttente >= n));
+    }
+
+    private void write(String text, boolean vider) {
+        try {
+            writer.write(text);
+            if (vider) {
+                writer.flush();
+                enAttente = 0;
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Écrit le contenu du tampon dans le fichier
+     */
+    synchronized void flush() {
+        try {
+            writer.flush();
+            enAttente = 0;
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+
+    /**
+     * Vide le tampon et ferme le fichier
+     */
+    @Override
+    public synchronized void close() {
+        OUVERTES.remove(this);
+        try {
+            writer.close();
+        } catch (IOException e) {
+            System.out.println(e);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Université de Franche-Comté, IUT Nord Franche-Comté, 90000 Belfort
+ * Année Universitaire 2022-2023
+ * SAE S1 01 / Groupe 29
+ * Nathan BOSCHI [nathan.boschi@edu.univ-fcomte.fr]
+ * Jessy MOUGAMMADALY [jessy.mougammadaly@edu.univ-fcomte.fr]
+ */
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Table de transposition de taille fixe, sans verrou, partageable entre plusieurs fils.
+ * Chaque entrée occupe deux long d'un tableau primitif : la clé xor les données, puis
+ * les données. Une entrée écrite à moitié par un autre fil ne vérifie plus la clé et
+ * est simplement vue comme absente. Les entrées sont groupées par seaux de quatre
+ * (64 octets) ; le remplacement privilégie la profondeur et vieillit les entrées des
+ * recherches précédentes.
+ *
+ * Données : coup sur les bits 0 à 11, score + 2^19 sur les bits 12 à 31,
+ * profondeur sur les bits 32 à 39, type de borne sur les bits 40 et 41,
+ * âge sur les bits 42 à 47.
+ */
+public class TranspositionTable {
+    static final int LOWER = 1;
+    static final int UPPER = 2;
+    static final int EXACT = 3;
+
+    private static final int ENTREES_PAR_SEAU = 4;
+    private static final int LONGS_PAR_SEAU = ENTREES_PAR_SEAU * 2;
+    private static final int SCORE_OFFSET = 1 << 19;
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] table;
+    private final long seauMask;
+    private volatile int age;
+
+    /**
+     * @param tailleMo taille de la table en mégaoctets (arrondie à la puissance de deux inférieure)
+     */
+    TranspositionTable(int tailleMo) {
+        long nbSeaux = Long.highestOneBit(Math.max(1L, (long) tailleMo * 1024 * 1024 / (LONGS_PAR_SEAU * 8)));
+        nbSeaux = Math.min(nbSeaux, 1L << 27);
+        this.table = new long[(int) nbSeaux * LONGS_PAR_SEAU];
+        this.seauMask = nbSeaux - 1;
+    }
+
+    /**
+     * Commence une nouvelle recherche : les entrées existantes vieillissent d'un cran
+     */
+    void newSearch() {
+        age = (age + 1) & 63;
+    }
+
+    /**
+     * Cherche la position dans la table
+     *
+     * @param key clé de Zobrist de la position
+     * @return données de l'entrée, 0 si la position est absente
+     */
+    long probe(long key) {
+        int base = (int) (key & seauMask) * LONGS_PAR_SEAU;
+        for (int i = base; i < base + LONGS_PAR_SEAU; i += 2) {
+            long data = (long) SLOT.getOpaque(table, i + 1);
+            if (data != 0 && ((long) SLOT.getOpaque(table, i) ^ data) == key) {
+                return data;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Enregistre une position. Remplace en priorité la même position, puis une entrée
+     * vide, puis l'entrée de plus faible profondeur, les entrées des recherches
+     * précédentes perdant 4 de profondeur par recherche d'écart.
+     *
+     * @param key   clé de Zobrist de la position
+     * @param move  meilleur coup (0 si aucun)
+     * @param score score à enregistrer
+     * @param depth profondeur de la recherche
+     * @param bound LOWER, UPPER ou EXACT
+     * @return vrai si l'entrée remplacée portait une autre position
+     */
+    boolean store(long key, int move, int score, int depth, int bound) {
+        int base = (int) (key & seauMask) * LONGS_PAR_SEAU;
+        int curAge = age;
+        int victim = base;
+        int victimWeight = Integer.MAX_VALUE;
+        for (int i = base; i < base + LONGS_PAR_SEAU; i += 2) {
+            long data = (long) SLOT.getOpaque(table, i + 1);
+            if (data == 0 || ((long) SLOT.getOpaque(table, i) ^ data) == key) {
+                victim = i;
+                victimWeight = Integer.MIN_VALUE;
+                if (data != 0 && move == 0) {
+                    move = move(data);
+                }
+                break;
+            }
+            int weight = depth(data) - 4 * ((curAge - age(data)) & 63);
+            if (weight < victimWeight) {
+                victim = i;
+                victimWeight = weight;
+            }
+        }
+        boolean collision = victimWeight != Integer.MIN_VALUE;
+        long data = (move & 0xFFFL)
+                | (long) (score + SCORE_OFFSET) << 12
+                | (long) (depth & 0xFF) << 32
+                | (long) bound << 40
+                | (long) curAge << 42;
+        SLOT.setOpaque(table, victim, key ^ data);
+        SLOT.setOpaque(table, victim + 1, data);
+        return collision;
+    }
+
+    /**
+     * @param data données renvoyées par probe
+     * @return coup enregistré, 0 si aucun
+     */
+    static int move(long data) {
+        return (int) (data & 0xFFF);
+    }
+
+    /**
+     * @param data données renvoyées par probe
+     * @return score enregistré
+     */
+    static int score(long data) {
+        return (int) (data >>> 12 & 0xFFFFF) - SCORE_OFFSET;
+    }
+
+    /**
+     * @param data données renvoyées par probe
+     * @return profondeur enregistrée
+     */
+    static int depth(long data) {
+        return (int) (data >>> 32 & 0xFF);
+    }
+
+    /**
+     * @param data données renvoyées par probe
+     * @return LOWER, UPPER ou EXACT
+     */
+    static int bound(long data) {
+        return (int) (data >>> 40 & 3);
+    }
+
+    private static int age(long data) {
+        return (int) (data >>> 42 & 63);
+    }
+}